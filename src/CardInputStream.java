@@ -1,9 +1,11 @@
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 /**
  * An {@link InputStream} which is used to read {@link Card} objects.
+ * Reads can be bounded by a deadline, see {@link CardInputStream#setDeadline(long)}.
+ * A read that times out keeps any partly read line, so the stream is left in a known state and reading can carry on afterwards.
  *
  * @see Card
  *
@@ -11,18 +13,86 @@ import java.io.InputStreamReader;
  */
 public class CardInputStream extends InputStream {
 
+    /**
+     * Value of {@link CardInputStream#deadline} when reads are not bounded.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     /**
      * The reader used to read the {@link InputStream} from the server.
      */
-    private final BufferedReader reader;
+    private final Reader reader;
+    /**
+     * The socket being read from, or null if not reading from a socket. Its timeout is adjusted to meet the deadline.
+     */
+    private final Socket socket;
+    /**
+     * The socket timeout in milliseconds to use when there is no deadline. 0 means wait forever.
+     */
+    private final int readTimeout;
 
     /**
-     * Constructors a new CardInputStream and initialises a {@link BufferedReader} {@link CardInputStream#reader} using the given {@link InputStream}
+     * Characters read from the {@link CardInputStream#reader} which have not been returned yet.
+     */
+    private final char[] buffer = new char[8192];
+    /**
+     * Position of the next unread character in the {@link CardInputStream#buffer}.
+     */
+    private int position;
+    /**
+     * Number of valid characters in the {@link CardInputStream#buffer}.
+     */
+    private int limit;
+    /**
+     * The start of a line whose end has not been read yet. Kept when a read times out.
+     */
+    private final StringBuilder partialLine = new StringBuilder();
+    /**
+     * True if the last character read was '\r', so that a following '\n' is skipped.
+     */
+    private boolean skipLineFeed;
+    /**
+     * The {@link System#nanoTime()} by which reads must finish, or {@link CardInputStream#NO_DEADLINE}.
+     */
+    private long deadline = NO_DEADLINE;
+    /**
+     * The line of the current card record to be read next: 0 for the "CARD" or "OK" header, 1 to 4 for the id, name, rank and price.
+     * Kept when a read times out, so the rest of the card list can be skipped by position.
+     */
+    private int cardLine;
+    /**
+     * The total number of characters received from the server.
+     */
+    private long charsReceived;
+    /**
+     * True if {@link CardInputStream#readCardChars(char[])} read the "OK" header after copying characters, so its next call returns -1.
+     */
+    private boolean cardsEnded;
+    /**
+     * True if the last read timed out because of the {@link CardInputStream#readTimeout}, rather than the deadline.
+     */
+    private boolean readTimeoutExpired;
+
+    /**
+     * Constructors a new CardInputStream and initialises a {@link Reader} {@link CardInputStream#reader} using the given {@link InputStream}
      *
      * @param input     The {@link InputStream} where card data will be read from.
      */
     public CardInputStream(InputStream input) {
-        this.reader = new BufferedReader(new InputStreamReader(input));
+        this(input, null, 0);
+    }
+
+    /**
+     * Constructs a new CardInputStream reading from the given {@link Socket}, whose timeout is adjusted to meet deadlines.
+     *
+     * @param input         The {@link InputStream} where card data will be read from. Usually the socket's own stream.
+     * @param socket        The {@link Socket} being read from.
+     * @param readTimeout   The socket timeout in milliseconds to use when there is no deadline. 0 means wait forever.
+     */
+    public CardInputStream(InputStream input, Socket socket, int readTimeout) {
+        this.reader = new InputStreamReader(input);
+        this.socket = socket;
+        this.readTimeout = readTimeout;
     }
 
     /**
@@ -35,6 +105,16 @@ public class CardInputStream extends InputStream {
         return 0;
     }
 
+    /**
+     * Sets the time by which all following reads must finish.
+     * Once it has passed, reads throw a {@link SocketTimeoutException}.
+     *
+     * @param deadline  A {@link System#nanoTime()} value, or {@link CardInputStream#NO_DEADLINE}.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     /**
      * Reads a {@link Card} from the input stream.
      * It first checks that the next line is "CARD".
@@ -42,35 +122,152 @@ public class CardInputStream extends InputStream {
      * If the next line was "OK", return null.
      *
      * @return A new {@link Card}, or null if "OK" is read.
+     * @throws IOException If the stream could not be read, timed out, or was incorrectly formatted.
+     */
+    public Card readCard() throws IOException {
+        String[] fields = new String[4];
+        if (!readCardFields(fields)) return null;
+        return parseCard(fields[0], fields[1], fields[2], fields[3]);
+    }
+
+    /**
+     * Reads the lines of a {@link Card} from the input stream without parsing them.
+     * It first checks that the next line is "CARD".
+     * If so, it then reads the id, name, rank and price lines into the given array.
+     *
+     * @param fields    An array of at least 4 elements to hold the id, name, rank and price lines.
+     * @return true if a card was read, or false if "OK" is read.
+     * @throws IOException If the stream could not be read, timed out, or was incorrectly formatted.
      */
-    public Card readCard() {
+    public boolean readCardFields(String[] fields) throws IOException {
         // Read header (Should be "CARD" or "OK")
-        String newHeader = readResponse();
-        if (newHeader.equals("CARD")) {
-            // Next 4 lines will be card info
-            long id = Long.parseLong(readResponse());
-            String name = readResponse();
-            Rank rank = Rank.valueOf(readResponse());
-            long price = Long.parseLong(readResponse());
-
-            // Return a new card with the read info
-            return new Card(id, name, rank, price);
+        String newHeader = readLine();
+        if (newHeader.equals("OK")) return false;
+        // If the header is not "CARD" or "OK" then the stream is incorrectly formatted
+        if (!newHeader.equals("CARD")) throw new IOException("Card input stream incorrectly formatted. Received {" + newHeader + "}");
+        cardLine = 1;
+
+        // Next 4 lines will be card info
+        for (int i = 0; i < 4; i++) {
+            fields[i] = readLine();
+            cardLine = (cardLine + 1) % 5;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the raw characters of the next card lines into the given array, without splitting them into lines or creating any strings.
+     * Only the id, name, rank and price lines are copied, each ended by '\n' whatever the server used. The "CARD" headers are checked and left out.
+     * Waits for more characters only if none have been copied yet, so characters are never lost if a read times out.
+     *
+     * @param chunk     The array to copy into.
+     * @return The number of characters copied, or -1 if the "OK" header has been read.
+     * @throws IOException If the stream could not be read, timed out, or was incorrectly formatted.
+     */
+    public int readCardChars(char[] chunk) throws IOException {
+        if (cardsEnded) {
+            cardsEnded = false;
+            return -1;
+        }
+        int count = 0;
+        while (count < chunk.length) {
+            if (position == limit) {
+                // Hand over what there is rather than waiting
+                if (count > 0) break;
+                position = 0;
+                limit = 0;
+                fill();
+            }
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+
+            // Look for the end of the current line
+            int end = position;
+            int max = cardLine == 0 ? limit : Math.min(limit, position + chunk.length - count);
+            while (end < max && buffer[end] != '\n' && buffer[end] != '\r') end++;
+
+            if (cardLine == 0) {
+                // Header line, which may be split across reads
+                partialLine.append(buffer, position, end - position);
+                position = end;
+                if (end == max) continue;
+                position = end + 1;
+                skipLineFeed = buffer[end] == '\r';
+
+                String header = partialLine.toString();
+                partialLine.setLength(0);
+                if (header.equals("OK")) {
+                    if (count == 0) return -1;
+                    cardsEnded = true;
+                    break;
+                }
+                if (!header.equals("CARD")) throw new IOException("Card input stream incorrectly formatted. Received {" + header + "}");
+                cardLine = 1;
+            } else {
+                // Field line, so copy it as it is
+                System.arraycopy(buffer, position, chunk, count, end - position);
+                count += end - position;
+                position = end;
+                if (end == max) continue;
+                position = end + 1;
+                skipLineFeed = buffer[end] == '\r';
+
+                chunk[count++] = '\n';
+                cardLine = (cardLine + 1) % 5;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Skips the rest of a card list which was only partly read, up to and including the "OK" header.
+     * Whole card records are skipped, so a card named "OK" does not end the list early.
+     *
+     * @throws IOException If the stream could not be read, timed out, or was incorrectly formatted.
+     */
+    public void skipCards() throws IOException {
+        // Finish the current card
+        while (cardLine != 0) {
+            readLine();
+            cardLine = (cardLine + 1) % 5;
+        }
+        String[] fields = new String[4];
+        while (readCardFields(fields)) {
+            // Skip card
+        }
+    }
+
+    /**
+     * Creates a {@link Card} from the 4 lines which follow a "CARD" header.
+     *
+     * @param id        The line holding the id.
+     * @param name      The line holding the name.
+     * @param rank      The line holding the rank.
+     * @param price     The line holding the price.
+     * @return A new {@link Card} with the given values.
+     * @throws IOException If a line could not be parsed.
+     */
+    static Card parseCard(String id, String name, String rank, String price) throws IOException {
+        try {
+            return new Card(Long.parseLong(id), name, Rank.valueOf(rank), Long.parseLong(price));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Card input stream incorrectly formatted. " + e.getMessage());
         }
-        // If the header is not "CARD" or "OK" then inform user
-        if (!newHeader.equals("OK")) System.out.println("Card input stream incorrectly formatted. Received {" + newHeader + "}");
-        return null;
     }
 
     /**
      * Reads a line from the input stream. If an IO error occurs, inform user.
-     * This method is used in {@link HollomonClient} to read from the socket.
      *
      * @return A string of the line read from the input stream. If error occurs, null.
      */
     public String readResponse() {
         try {
-            // Read line from server
-            return reader.readLine();
+            return readLine();
         } catch (Exception e) {
             System.out.println("Could not read response from server. " + e.getMessage());
             return null;
@@ -78,7 +275,123 @@ public class CardInputStream extends InputStream {
     }
 
     /**
-     * Closes the {@link BufferedReader} {@link CardInputStream#reader}.
+     * Reads a line from the input stream, without the line terminator.
+     * This method is used in {@link HollomonClient} to read from the socket.
+     * If the read times out, the characters read so far are kept and returned as the start of the next line.
+     *
+     * @return A string of the line read from the input stream.
+     * @throws SocketTimeoutException If the deadline or read timeout passes before a whole line is read.
+     * @throws EOFException If the stream ends.
+     * @throws IOException If the stream could not be read.
+     */
+    public String readLine() throws IOException {
+        while (true) {
+            // Look for the end of the line in what has been read so far
+            for (int i = position; i < limit; i++) {
+                char c = buffer[i];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') {
+                        position++;
+                        continue;
+                    }
+                }
+                if (c == '\n' || c == '\r') {
+                    partialLine.append(buffer, position, i - position);
+                    position = i + 1;
+                    skipLineFeed = c == '\r';
+
+                    String line = partialLine.toString();
+                    partialLine.setLength(0);
+                    return line;
+                }
+            }
+            // No end of line yet, so keep what there is and read more
+            partialLine.append(buffer, position, limit - position);
+            position = 0;
+            limit = 0;
+            fill();
+        }
+    }
+
+    /**
+     * Reads more characters into the {@link CardInputStream#buffer}, applying the deadline to the socket first.
+     *
+     * @throws IOException If the stream could not be read, timed out, or has ended.
+     */
+    private void fill() throws IOException {
+        readTimeoutExpired = false;
+        // Whether the read timeout, rather than the deadline, is what limits this read
+        boolean limitedByReadTimeout = readTimeout > 0;
+        if (deadline != NO_DEADLINE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new SocketTimeoutException("Deadline passed.");
+            // Round up so that a timeout of 0 (wait forever) is never used
+            int timeout = (int) Math.min(Integer.MAX_VALUE, (remaining + 999_999) / 1_000_000);
+            limitedByReadTimeout = readTimeout > 0 && readTimeout < timeout;
+            if (limitedByReadTimeout) timeout = readTimeout;
+            if (socket != null) socket.setSoTimeout(timeout);
+        } else if (socket != null) {
+            socket.setSoTimeout(readTimeout);
+        }
+
+        int count;
+        try {
+            count = reader.read(buffer, 0, buffer.length);
+        } catch (SocketTimeoutException e) {
+            readTimeoutExpired = limitedByReadTimeout;
+            throw e;
+        }
+        if (count == -1) throw new EOFException("Server closed the connection.");
+        limit = count;
+        charsReceived += count;
+    }
+
+    /**
+     * Returns whether the last read timed out because of the read timeout given to the constructor, rather than the deadline.
+     * A deadline only limits how long a command may take, but the read timeout bounds how long the server may stay silent.
+     *
+     * @return true if the read timeout expired, otherwise false.
+     */
+    public boolean hasReadTimeoutExpired() {
+        return readTimeoutExpired;
+    }
+
+    /**
+     * Returns the total number of characters received from the server, so callers can tell whether anything arrived while waiting.
+     *
+     * @return the number of characters received.
+     */
+    public long getCharsReceived() {
+        return charsReceived;
+    }
+
+    /**
+     * Checks, without waiting more than a millisecond, whether the server has closed an idle connection.
+     * Anything the server has sent is kept to be read as normal.
+     *
+     * @return true if the server has closed the connection or it has failed, otherwise false. Always false if not reading from a socket.
+     */
+    public boolean isClosedByServer() {
+        if (socket == null || position < limit || partialLine.length() > 0) return false;
+        try {
+            socket.setSoTimeout(1);
+            int count = reader.read(buffer, 0, buffer.length);
+            if (count == -1) return true;
+            position = 0;
+            limit = count;
+            charsReceived += count;
+            return false;
+        } catch (SocketTimeoutException e) {
+            // Nothing to read, but still open
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Closes the {@link Reader} {@link CardInputStream#reader}.
      */
     @Override
     public void close() {
@@ -0,0 +1,286 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads a list of {@link Card} objects from a {@link CardInputStream} in three overlapping stages, so that reading from the server is not held up by parsing.
+ * <ol>
+ *     <li>A reader thread copies the raw characters of the card lines from the stream, see {@link CardInputStream#readCardChars(char[])}.</li>
+ *     <li>A parser thread splits the characters into lines, turns them into {@link Card} objects and sorts them in batches.</li>
+ *     <li>The calling thread merges each sorted batch in as it arrives, so that little is left to do once the whole list has been read.</li>
+ * </ol>
+ * The stages are joined by bounded queues, so a slow stage holds back the one before it instead of using unbounded memory.
+ *
+ * @see CardInputStream
+ * @see HollomonClient#setPipelinedReads(boolean)
+ *
+ * @author DanielJudd
+ */
+public class CardPipeline implements Closeable {
+
+    /**
+     * The number of cards in each sorted batch passed to the calling thread.
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * The largest number of characters passed from the reader stage at once.
+     */
+    private static final int CHUNK_SIZE = 8192;
+    /**
+     * The number of chunks or batches each queue can hold before the stage filling it waits.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * Raw characters of card lines read from the stream, each line ended by '\n'. Lines may be split across chunks.
+     *
+     * @param chars     The characters, or null if this marks the end of the reply.
+     * @param count     The number of characters used.
+     * @param error     The reason reading stopped early, or null.
+     */
+    private record CharChunk(char[] chars, int count, IOException error) {}
+
+    /**
+     * Sorted cards parsed from {@link CharChunk} objects.
+     *
+     * @param cards     The cards, or null if this marks the end of the reply.
+     * @param error     The reason reading or parsing stopped early, or null.
+     */
+    private record CardBatch(List<Card> cards, IOException error) {}
+
+    /**
+     * Thrown when the whole reply was read from the stream, but a card in it could not be parsed.
+     * Unlike other errors, nothing is left of the reply on the stream.
+     */
+    public static class MalformedCardsException extends IOException {
+        /**
+         * Version of the serialised form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs a new MalformedCardsException caused by the given parse error.
+         *
+         * @param cause     The error from parsing the card.
+         */
+        public MalformedCardsException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Runs the reader and parser stages.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a new CardPipeline with its own reader and parser threads.
+     */
+    public CardPipeline() {
+        this.executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "CardPipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads cards until "OK" is read, and returns them sorted.
+     * Gives the same result as reading with {@link CardInputStream#readCard()} and sorting afterwards.
+     * The stream is not used by the pipeline once this method returns, even if it throws.
+     *
+     * @param cardReader    The stream to read the cards from.
+     * @return A sorted {@link List} of {@link Card} objects.
+     * @throws MalformedCardsException If all the cards were read, but one could not be parsed.
+     * @throws IOException If the cards could not be read, timed out, or were incorrectly formatted.
+     */
+    public List<Card> readCards(CardInputStream cardReader) throws IOException {
+        BlockingQueue<CharChunk> charQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<CardBatch> cardQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        executor.execute(() -> readChars(cardReader, charQueue));
+        executor.execute(() -> parseChars(charQueue, cardQueue));
+
+        // Sorted runs, newest first. Each is more than twice as long as the one after it, like the digits of a binary counter,
+        // so merging as batches arrive keeps at most log2(batches) runs and the merge work overlaps with reading
+        Deque<List<Card>> runs = new ArrayDeque<>();
+        CardBatch batch;
+        // Merge until the parser marks the end, which it only does after the reader has stopped
+        while ((batch = take(cardQueue)).cards() != null) {
+            List<Card> run = batch.cards();
+            while (!runs.isEmpty() && runs.peek().size() <= run.size()) {
+                run = merge(runs.pop(), run);
+            }
+            runs.push(run);
+        }
+        if (batch.error() != null) throw batch.error();
+
+        // Only the few remaining runs are left to merge
+        List<Card> cards = runs.isEmpty() ? new ArrayList<>() : runs.pop();
+        while (!runs.isEmpty()) {
+            cards = merge(runs.pop(), cards);
+        }
+        return cards;
+    }
+
+    /**
+     * Merges two sorted lists of cards. Where cards are equal, those from the earlier list come first,
+     * so the result is the same as sorting all the cards in the order they were read.
+     *
+     * @param earlier   Sorted cards which were read first.
+     * @param later     Sorted cards which were read after them.
+     * @return A new sorted {@link List} holding the cards of both.
+     */
+    private static List<Card> merge(List<Card> earlier, List<Card> later) {
+        List<Card> merged = new ArrayList<>(earlier.size() + later.size());
+        int i = 0;
+        int j = 0;
+        while (i < earlier.size() && j < later.size()) {
+            if (earlier.get(i).compareTo(later.get(j)) <= 0) {
+                merged.add(earlier.get(i++));
+            } else {
+                merged.add(later.get(j++));
+            }
+        }
+        merged.addAll(earlier.subList(i, earlier.size()));
+        merged.addAll(later.subList(j, later.size()));
+        return merged;
+    }
+
+    /**
+     * The reader stage. Copies the raw characters of the card lines into chunks and passes them on, followed by an end marker.
+     * Nothing is split or parsed here, so the stream is read again as soon as possible.
+     *
+     * @param cardReader    The stream to read the cards from.
+     * @param charQueue     The queue to pass chunks to the parser stage.
+     */
+    private static void readChars(CardInputStream cardReader, BlockingQueue<CharChunk> charQueue) {
+        IOException error = null;
+        try {
+            while (true) {
+                char[] chars = new char[CHUNK_SIZE];
+                int count = cardReader.readCardChars(chars);
+                if (count == -1) break;
+                put(charQueue, new CharChunk(chars, count, null));
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("Failed to read cards. " + e.getMessage(), e);
+        }
+        put(charQueue, new CharChunk(null, 0, error));
+    }
+
+    /**
+     * The parser stage. Splits the chunks into lines, turns every 4 lines into a card, and passes the cards on in sorted batches.
+     * Keeps taking chunks after an error so the reader stage is never left waiting.
+     *
+     * @param charQueue     The queue to take chunks from the reader stage.
+     * @param cardQueue     The queue to pass sorted cards to the calling thread.
+     */
+    private static void parseChars(BlockingQueue<CharChunk> charQueue, BlockingQueue<CardBatch> cardQueue) {
+        IOException error = null;
+        // The start of a line split across chunks
+        StringBuilder partialLine = new StringBuilder();
+        String[] fields = new String[4];
+        int field = 0;
+        List<Card> cards = new ArrayList<>(BATCH_SIZE);
+
+        CharChunk chunk;
+        while ((chunk = take(charQueue)).chars() != null) {
+            if (error != null) continue;
+            try {
+                char[] chars = chunk.chars();
+                int lineStart = 0;
+                for (int i = 0; i < chunk.count(); i++) {
+                    if (chars[i] != '\n') continue;
+                    if (partialLine.length() == 0) {
+                        fields[field++] = new String(chars, lineStart, i - lineStart);
+                    } else {
+                        fields[field++] = partialLine.append(chars, lineStart, i - lineStart).toString();
+                        partialLine.setLength(0);
+                    }
+                    lineStart = i + 1;
+
+                    if (field == 4) {
+                        field = 0;
+                        cards.add(CardInputStream.parseCard(fields[0], fields[1], fields[2], fields[3]));
+                        if (cards.size() == BATCH_SIZE) {
+                            Collections.sort(cards);
+                            put(cardQueue, new CardBatch(cards, null));
+                            cards = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+                partialLine.append(chars, lineStart, chunk.count() - lineStart);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error == null && !cards.isEmpty()) {
+            Collections.sort(cards);
+            put(cardQueue, new CardBatch(cards, null));
+        }
+        // A read error takes priority, since it decides what is left on the stream
+        if (chunk.error() != null) error = chunk.error();
+        else if (error != null) error = new MalformedCardsException(error);
+        put(cardQueue, new CardBatch(null, error));
+    }
+
+    /**
+     * Adds to a queue, waiting for space. An interrupt is kept until afterwards, so that the end marker always gets through.
+     *
+     * @param queue     The queue to add to.
+     * @param element   The element to add.
+     * @param <E>       The type of element.
+     */
+    private static <E> void put(BlockingQueue<E> queue, E element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Removes from a queue, waiting for an element. An interrupt is kept until afterwards, so that no stage is left behind.
+     *
+     * @param queue     The queue to remove from.
+     * @param <E>       The type of element.
+     * @return The element removed.
+     */
+    private static <E> E take(BlockingQueue<E> queue) {
+        boolean interrupted = false;
+        E element;
+        while (true) {
+            try {
+                element = queue.take();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return element;
+    }
+
+    /**
+     * Stops the reader and parser threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Used to test the {@link CardPipeline} class.
+ * Replays a session with a large card list, and checks that pipelined reads give the same cards as reading on the calling thread.
+ *
+ * @see CardPipeline
+ * @see SessionReplayer
+ *
+ * @author DanielJudd
+ */
+public class CardPipelineTest {
+
+    /**
+     * The number of cards in the offers list. Large enough to fill several batches.
+     */
+    private static final int cardCount = 5000;
+
+    /**
+     * Calls {@link CardPipelineTest#testAllCardPipelineTests()} to initiate testing.
+     *
+     * @param args  Command line arguments.
+     */
+    public static void main(String[] args) throws IOException {
+        testAllCardPipelineTests();
+    }
+
+    /**
+     * Calls all other methods in order to test the {@link CardPipeline} class.
+     */
+    private static void testAllCardPipelineTests() throws IOException {
+        testSameCardsAsSequential();
+        testMalformedOffers();
+        testSplitReads();
+
+        System.out.println("All CardPipeline tests passed!");
+    }
+
+    /**
+     * Asserts that getting offers with pipelined reads returns the same sorted cards as without.
+     */
+    private static void testSameCardsAsSequential() throws IOException {
+        byte[] capture = buildCapture("OK\n" + randomCards(cardCount) + "OK\n");
+
+        HollomonClient sequentialClient = new HollomonClient(new SessionReplayer(new ByteArrayInputStream(capture), false));
+        List<Card> sequentialLogin = sequentialClient.login("tester", "password");
+        assert sequentialLogin.isEmpty();
+        List<Card> expected = sequentialClient.getOffers();
+        sequentialClient.close();
+
+        HollomonClient pipelinedClient = new HollomonClient(new SessionReplayer(new ByteArrayInputStream(capture), false));
+        pipelinedClient.setPipelinedReads(true);
+        List<Card> pipelinedLogin = pipelinedClient.login("tester", "password");
+        assert pipelinedLogin.isEmpty();
+        List<Card> cards = pipelinedClient.getOffers();
+        pipelinedClient.close();
+
+        assert cards.size() == cardCount;
+        assert cards.equals(expected);
+
+        System.out.println("SameCardsAsSequential test passed!");
+    }
+
+    /**
+     * Asserts that an OFFERS reply with a card which cannot be parsed fails, and that the following command still gets its own reply.
+     */
+    private static void testMalformedOffers() throws IOException {
+        String offers = randomCards(cardCount) + "CARD\nnot a number\nButler\nCOMMON\n20\n" + randomCards(10) + "OK\n";
+        byte[] capture = buildCapture("OK\n" + offers + "150\nOK\n");
+
+        HollomonClient hollomonClient = new HollomonClient(new SessionReplayer(new ByteArrayInputStream(capture), false));
+        hollomonClient.setPipelinedReads(true);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.isEmpty();
+        CommandResult<List<Card>> offersResult = hollomonClient.tryGetOffers();
+        assert offersResult.getStatus() == CommandResult.Status.FAILED;
+        long credits = hollomonClient.getCredits();
+        assert credits == 150;
+        hollomonClient.close();
+
+        System.out.println("MalformedOffers test passed!");
+    }
+
+    /**
+     * Asserts that a card list with "\r\n" line endings, arriving a few bytes at a time so that lines are split across reads,
+     * gives the same cards as reading on the calling thread, and that the stream is left just after the "OK" header.
+     */
+    private static void testSplitReads() throws IOException {
+        String reply = (randomCards(cardCount) + "OK\n").replace("\n", "\r\n") + "150\r\n";
+
+        CardInputStream sequentialReader = new CardInputStream(new ByteArrayInputStream(reply.getBytes()));
+        List<Card> expected = new ArrayList<>();
+        Card card;
+        while ((card = sequentialReader.readCard()) != null) expected.add(card);
+        Collections.sort(expected);
+
+        CardInputStream splitReader = new CardInputStream(new ByteArrayInputStream(reply.getBytes()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+        try (CardPipeline pipeline = new CardPipeline()) {
+            List<Card> cards = pipeline.readCards(splitReader);
+            assert cards.equals(expected);
+        }
+        String nextLine = splitReader.readLine();
+        assert nextLine.equals("150");
+
+        System.out.println("SplitReads test passed!");
+    }
+
+    /**
+     * Returns the given number of randomly generated cards, as sent by the server.
+     *
+     * @param count     The number of cards.
+     * @return The cards as lines of text.
+     */
+    private static String randomCards(int count) {
+        Random random = new Random(count);
+        StringBuilder cards = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            cards.append("CARD\n")
+                    .append(random.nextInt(1_000_000)).append('\n')
+                    .append("Card ").append(random.nextInt(100)).append('\n')
+                    .append(Rank.values()[random.nextInt(Rank.values().length)]).append('\n')
+                    .append(random.nextInt(1000)).append('\n');
+        }
+        return cards.toString();
+    }
+
+    /**
+     * Builds a capture of a successful login followed by the given server output.
+     *
+     * @param afterLogin    Everything the server sends after the login response.
+     * @return The bytes of the capture.
+     */
+    private static byte[] buildCapture(String afterLogin) throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        SessionRecorder recorder = new SessionRecorder(capture);
+        SessionRecorder.Connection connection = recorder.newConnection();
+        connection.attach();
+        InputStream fromServer = connection.recordInput(new ByteArrayInputStream(("User tester logged in successfully.\n" + afterLogin).getBytes()));
+        fromServer.readAllBytes();
+        recorder.close();
+        return capture.toByteArray();
+    }
+}
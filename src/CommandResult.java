@@ -0,0 +1,141 @@
+/**
+ * The result of a command sent to the server by a {@link HollomonClient}.
+ * Stores the {@link CommandResult.Status} of the command, the value returned if it succeeded, and a message if it did not.
+ *
+ * @param <T>   The type of value returned by the command.
+ *
+ * @see HollomonClient
+ *
+ * @author DanielJudd
+ */
+public class CommandResult<T> {
+
+    /**
+     * The possible outcomes of a command.
+     */
+    public enum Status {
+        /**
+         * The server completed the command.
+         */
+        OK,
+        /**
+         * The server replied, but refused the command. For example, a failed login or an unaffordable card.
+         */
+        REJECTED,
+        /**
+         * No complete reply arrived before the timeout. The rest of the reply is skipped before the next command.
+         */
+        TIMED_OUT,
+        /**
+         * The command could not be sent or its reply could not be read.
+         */
+        FAILED
+    }
+
+    /**
+     * The outcome of the command.
+     */
+    private final Status status;
+    /**
+     * The value returned by the command. Only set if the status is {@link Status#OK}.
+     */
+    private final T value;
+    /**
+     * A description of why the command did not succeed. Only set if the status is not {@link Status#OK}.
+     */
+    private final String message;
+
+    /**
+     * The constructor for a CommandResult. Use the static methods to create results.
+     *
+     * @param status    The outcome of the command.
+     * @param value     The value returned by the command.
+     * @param message   A description of why the command did not succeed.
+     */
+    private CommandResult(Status status, T value, String message) {
+        this.status = status;
+        this.value = value;
+        this.message = message;
+    }
+
+    /**
+     * Creates the result of a command which succeeded.
+     *
+     * @param value     The value returned by the command.
+     * @param <T>       The type of value returned by the command.
+     * @return A result with status {@link Status#OK}.
+     */
+    public static <T> CommandResult<T> ok(T value) {
+        return new CommandResult<>(Status.OK, value, null);
+    }
+
+    /**
+     * Creates the result of a command which did not succeed.
+     *
+     * @param status    The outcome of the command. Should not be {@link Status#OK}.
+     * @param message   A description of why the command did not succeed.
+     * @param <T>       The type of value the command would have returned.
+     * @return A result with the given status and no value.
+     */
+    public static <T> CommandResult<T> of(Status status, String message) {
+        return new CommandResult<>(status, null, message);
+    }
+
+    /**
+     * Returns the outcome of the command.
+     *
+     * @return the status of the command.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns whether the command succeeded.
+     *
+     * @return true if the status is {@link Status#OK}, otherwise false.
+     */
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    /**
+     * Returns the value returned by the command.
+     *
+     * @return the value if the command succeeded, otherwise null.
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the value returned by the command, or the given value if it did not succeed.
+     *
+     * @param other     The value to return if the command did not succeed.
+     * @return the value of the command, or other.
+     */
+    public T orElse(T other) {
+        return isOk() ? value : other;
+    }
+
+    /**
+     * Returns why the command did not succeed.
+     *
+     * @return a description of the failure, or null if the command succeeded.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns a string representation of the result, used for printing to the terminal.
+     * <br>
+     * Format: "'STATUS': 'VALUE or MESSAGE'"
+     *
+     * @return A string representation of the result.
+     */
+    @Override
+    public String toString() {
+        return status.name() + ": " + (isOk() ? value : message);
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Used to test the timeouts of {@link HollomonClient}.
+ * Runs a local server which stalls part way through a reply, and checks that the command times out and the connection can still be used afterwards.
+ *
+ * @see HollomonClient
+ * @see CommandResult
+ *
+ * @author DanielJudd
+ */
+public class CommandTimeoutTest {
+
+    /**
+     * The per-command timeout used by the client, in milliseconds.
+     */
+    private static final int commandTimeout = 100;
+
+    /**
+     * Calls {@link CommandTimeoutTest#testAllCommandTimeoutTests()} to initiate testing.
+     *
+     * @param args  Command line arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        testAllCommandTimeoutTests();
+    }
+
+    /**
+     * Calls all other methods in order to test the timeouts of {@link HollomonClient}.
+     */
+    private static void testAllCommandTimeoutTests() throws Exception {
+        testStalledOffers();
+        testBuyWithinOneDeadline();
+        testNotLoggedIn();
+        testSlowReplyKeepsConnection();
+        testTimedOutLogin();
+
+        System.out.println("All CommandTimeout tests passed!");
+    }
+
+    /**
+     * Asserts that an OFFERS reply which stalls part way through a line times out,
+     * and that the next command skips the rest of the offers and succeeds.
+     */
+    private static void testStalledOffers() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> runStallingServer(serverSocket));
+            server.start();
+
+            HollomonClient hollomonClient = new HollomonClient("localhost", serverSocket.getLocalPort());
+            hollomonClient.setConnectTimeout(1000);
+            hollomonClient.setCommandTimeout(commandTimeout);
+            List<Card> cards = hollomonClient.login("tester", "password");
+            assert cards.isEmpty();
+
+            // Offers stall half way through the card name
+            CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+            assert offers.getStatus() == CommandResult.Status.TIMED_OUT;
+
+            // Rest of the offers arrive during this command and are skipped
+            CommandResult<Long> credits = hollomonClient.tryGetCredits();
+            assert credits.isOk();
+            assert credits.getValue() == 100;
+
+            hollomonClient.close();
+            server.join();
+        }
+
+        System.out.println("StalledOffers test passed!");
+    }
+
+    /**
+     * Asserts that buying a card times out when its credit check and BUY together take longer than the command timeout,
+     * even though each takes less than it.
+     */
+    private static void testBuyWithinOneDeadline() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> runSlowServer(serverSocket));
+            server.start();
+
+            HollomonClient hollomonClient = new HollomonClient("localhost", serverSocket.getLocalPort());
+            hollomonClient.setCommandTimeout(commandTimeout);
+            List<Card> cards = hollomonClient.login("tester", "password");
+            assert cards.isEmpty();
+
+            CommandResult<Boolean> bought = hollomonClient.tryBuyCard(new Card(12345, "Butler", Rank.COMMON, 20));
+            assert bought.getStatus() == CommandResult.Status.TIMED_OUT;
+
+            hollomonClient.close();
+            server.join();
+        }
+
+        System.out.println("BuyWithinOneDeadline test passed!");
+    }
+
+    /**
+     * Asserts that commands sent before logging in fail instead of throwing.
+     */
+    private static void testNotLoggedIn() {
+        HollomonClient hollomonClient = new HollomonClient("localhost", 0);
+        CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+        assert offers.getStatus() == CommandResult.Status.FAILED;
+
+        System.out.println("NotLoggedIn test passed!");
+    }
+
+    /**
+     * Asserts that a reply which arrives after the command timeout, but within the read timeout, does not drop the connection.
+     * The server only accepts one connection, so the following command only succeeds on the same connection.
+     */
+    private static void testSlowReplyKeepsConnection() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> runLateServer(serverSocket));
+            server.start();
+
+            HollomonClient hollomonClient = new HollomonClient("localhost", serverSocket.getLocalPort());
+            hollomonClient.setReadTimeout(commandTimeout * 10);
+            hollomonClient.setCommandTimeout(commandTimeout);
+            List<Card> cards = hollomonClient.login("tester", "password");
+            assert cards.isEmpty();
+
+            CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+            assert offers.getStatus() == CommandResult.Status.TIMED_OUT;
+
+            // The late offers are skipped on the same connection
+            CommandResult<Long> credits = hollomonClient.tryGetCredits();
+            assert credits.isOk();
+            assert credits.getValue() == 100;
+
+            hollomonClient.close();
+            server.join();
+        }
+
+        System.out.println("SlowReplyKeepsConnection test passed!");
+    }
+
+    /**
+     * Asserts that after a login times out, commands fail as not logged in instead of being sent on the connection.
+     */
+    private static void testTimedOutLogin() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread server = new Thread(() -> runSilentServer(serverSocket));
+            server.start();
+
+            HollomonClient hollomonClient = new HollomonClient("localhost", serverSocket.getLocalPort());
+            hollomonClient.setCommandTimeout(commandTimeout);
+            CommandResult<List<Card>> login = hollomonClient.tryLogin("tester", "password");
+            assert login.getStatus() == CommandResult.Status.TIMED_OUT;
+
+            CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+            assert offers.getStatus() == CommandResult.Status.FAILED;
+            assert offers.getMessage().equals("Not logged in.");
+
+            hollomonClient.close();
+            server.join();
+        }
+
+        System.out.println("TimedOutLogin test passed!");
+    }
+
+    /**
+     * Accepts one client and never replies, reading until the client disconnects.
+     *
+     * @param serverSocket  The socket to accept the client on.
+     */
+    private static void runSilentServer(ServerSocket serverSocket) {
+        try (Socket socket = serverSocket.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            while (reader.readLine() != null) {
+                // Ignore everything
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        }
+    }
+
+    /**
+     * Accepts one client, logs it in, and answers OFFERS only after 150% of the command timeout, then answers CREDITS.
+     *
+     * @param serverSocket  The socket to accept the client on.
+     */
+    private static void runLateServer(ServerSocket serverSocket) {
+        try (Socket socket = serverSocket.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Writer writer = new OutputStreamWriter(socket.getOutputStream());
+
+            // Login with no cards
+            String username = reader.readLine();
+            reader.readLine();
+            send(writer, "User " + username + " logged in successfully.\nOK\n");
+
+            String offers = reader.readLine();
+            assert offers.equals("OFFERS");
+            Thread.sleep(commandTimeout * 3 / 2);
+            send(writer, "OK\n");
+
+            String credits = reader.readLine();
+            assert credits.equals("CREDITS");
+            send(writer, "100\nOK\n");
+        } catch (Exception e) {
+            System.out.println("Late server failed. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accepts one client, logs it in, and sends a reply to OFFERS which pauses for longer than the command timeout.
+     * The pause splits the name "BOOK" so that the start of the line must be kept for the rest of the reply to be skipped correctly.
+     * A later card is named "OK", so the rest of the reply must be skipped card by card rather than up to the first "OK" line.
+     *
+     * @param serverSocket  The socket to accept the client on.
+     */
+    private static void runStallingServer(ServerSocket serverSocket) {
+        try (Socket socket = serverSocket.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Writer writer = new OutputStreamWriter(socket.getOutputStream());
+
+            // Login with no cards
+            String username = reader.readLine();
+            reader.readLine();
+            send(writer, "User " + username + " logged in successfully.\nOK\n");
+
+            // Stall half way through the offers
+            String offers = reader.readLine();
+            assert offers.equals("OFFERS");
+            send(writer, "CARD\n12345\nBO");
+            Thread.sleep(commandTimeout * 3 / 2);
+            send(writer, "OK\nRARE\n0\nCARD\n54321\nOK\nCOMMON\n0\nOK\n");
+
+            String credits = reader.readLine();
+            assert credits.equals("CREDITS");
+            send(writer, "100\nOK\n");
+        } catch (Exception e) {
+            System.out.println("Stalling server failed. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accepts one client, logs it in, and answers CREDITS and BUY each after 60% of the command timeout.
+     *
+     * @param serverSocket  The socket to accept the client on.
+     */
+    private static void runSlowServer(ServerSocket serverSocket) {
+        try (Socket socket = serverSocket.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Writer writer = new OutputStreamWriter(socket.getOutputStream());
+
+            // Login with no cards
+            String username = reader.readLine();
+            reader.readLine();
+            send(writer, "User " + username + " logged in successfully.\nOK\n");
+
+            String credits = reader.readLine();
+            assert credits.equals("CREDITS");
+            Thread.sleep(commandTimeout * 3 / 5);
+            send(writer, "100\nOK\n");
+
+            String buy = reader.readLine();
+            if (buy == null) return;
+            Thread.sleep(commandTimeout * 3 / 5);
+            send(writer, "OK\n");
+        } catch (Exception e) {
+            // Client gave up and disconnected
+        }
+    }
+
+    /**
+     * Writes the given text to the client and flushes it.
+     *
+     * @param writer    The writer to the client.
+     * @param text      The text to send.
+     */
+    private static void send(Writer writer, String text) throws IOException {
+        writer.write(text);
+        writer.flush();
+    }
+}
@@ -0,0 +1,422 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Used to test how {@link HollomonClient} recovers when the connection drops.
+ * Runs a local server which can drop a connection as soon as offers are requested.
+ *
+ * @see HollomonClient
+ *
+ * @author DanielJudd
+ */
+public class FailoverTest {
+
+    /**
+     * A single card, as sent by the server.
+     */
+    private static final String cardReply = "CARD\n12345\nButler\nCOMMON\n20\nOK\n";
+    /**
+     * A card list which cannot be parsed, used to check that it is skipped.
+     */
+    private static final String malformedCardReply = "CARD\nnot a number\nButler\nCOMMON\n20\nOK\n";
+
+    /**
+     * A local server which accepts any login and answers OFFERS and CREDITS.
+     * The credits of a user are the length of their username, so tests can tell which user a session is logged in as.
+     */
+    private static class TestServer {
+        /**
+         * The socket clients are accepted on.
+         */
+        private final ServerSocket serverSocket;
+        /**
+         * The card list sent on login to every connection after the first.
+         */
+        private final String laterLoginCards;
+        /**
+         * The number of connections accepted so far.
+         */
+        private final AtomicInteger connections = new AtomicInteger();
+        /**
+         * The number of open connections for each username.
+         */
+        private final Map<String, AtomicInteger> openConnections = new ConcurrentHashMap<>();
+        /**
+         * The sockets of all connections which are still open.
+         */
+        private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+        /**
+         * If true, the next connection to ask for offers is dropped.
+         */
+        private final AtomicBoolean dropNextOffers = new AtomicBoolean();
+        /**
+         * If true, the next connection to ask for offers stops replying but stays open, like a server which went away without closing it.
+         */
+        private final AtomicBoolean stallNextOffers = new AtomicBoolean();
+
+        /**
+         * Starts a new TestServer on any free port.
+         *
+         * @param laterLoginCards   The card list sent on login to every connection after the first.
+         */
+        private TestServer(String laterLoginCards) throws IOException {
+            this.serverSocket = new ServerSocket(0);
+            this.laterLoginCards = laterLoginCards;
+
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        openSockets.add(socket);
+                        int connection = connections.getAndIncrement();
+                        Thread handler = new Thread(() -> serve(socket, connection == 0 ? cardReply : this.laterLoginCards));
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException e) {
+                    // Server socket closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        /**
+         * Returns a new client for this server.
+         *
+         * @return A {@link HollomonClient} which has not logged in.
+         */
+        private HollomonClient newClient() {
+            return new HollomonClient("localhost", serverSocket.getLocalPort());
+        }
+
+        /**
+         * Returns the number of open connections logged in as the given user.
+         *
+         * @param username  The username to count.
+         * @return The number of open connections.
+         */
+        private int openConnections(String username) {
+            AtomicInteger count = openConnections.get(username);
+            return count == null ? 0 : count.get();
+        }
+
+        /**
+         * Serves a single client.
+         *
+         * @param socket        The socket to the client.
+         * @param loginCards    The card list to send after logging in.
+         */
+        private void serve(Socket socket, String loginCards) {
+            String username = null;
+            try (socket) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                Writer writer = new OutputStreamWriter(socket.getOutputStream());
+
+                username = reader.readLine();
+                reader.readLine();
+                openConnections.computeIfAbsent(username, name -> new AtomicInteger()).incrementAndGet();
+                writer.write("User " + username + " logged in successfully.\n" + loginCards);
+                writer.flush();
+
+                String command;
+                while ((command = reader.readLine()) != null) {
+                    if (command.equals("OFFERS")) {
+                        if (dropNextOffers.compareAndSet(true, false)) return;
+                        if (stallNextOffers.compareAndSet(true, false)) {
+                            // Keep the connection open until the client gives up on it
+                            while (reader.readLine() != null) {}
+                            return;
+                        }
+                        writer.write(cardReply);
+                    } else if (command.startsWith("BUY")) {
+                        // Drop the connection before replying, so the client cannot tell whether the card was bought
+                        return;
+                    } else if (command.equals("CREDITS")) {
+                        writer.write(username.length() + "\nOK\n");
+                    }
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                // Client disconnected
+            } finally {
+                openSockets.remove(socket);
+                if (username != null) openConnections.get(username).decrementAndGet();
+            }
+        }
+
+        /**
+         * Closes every open connection, as if the server had restarted.
+         */
+        private void closeAll() throws IOException {
+            for (Socket socket : openSockets) socket.close();
+        }
+
+        /**
+         * Stops accepting clients.
+         */
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Calls {@link FailoverTest#testAllFailoverTests()} to initiate testing.
+     *
+     * @param args  Command line arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        testAllFailoverTests();
+    }
+
+    /**
+     * Calls all other methods in order to test how {@link HollomonClient} recovers when the connection drops.
+     */
+    private static void testAllFailoverTests() throws Exception {
+        testStandbyFailover();
+        testReconnectWithCachedCards();
+        testLoginTwice();
+        testSilentServerFailover();
+        testClosedStandbySkipped();
+        testLostBuyReplyDropsCache();
+        testLowerStandbyCount();
+        testRecordFailover();
+
+        System.out.println("All Failover tests passed!");
+    }
+
+    /**
+     * Asserts that when the connection drops, the client switches to its standby session and the offers are still returned.
+     */
+    private static void testStandbyFailover() throws Exception {
+        TestServer server = new TestServer(cardReply);
+        server.dropNextOffers.set(true);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setStandbyCount(1);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 1);
+        assert server.connections.get() == 2;
+
+        // First connection drops, so offers come from the standby
+        CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+        assert offers.isOk();
+        assert offers.getValue().size() == 1;
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("StandbyFailover test passed!");
+    }
+
+    /**
+     * Asserts that with no standby, the client logs in again and skips the card list because a recent copy is held.
+     * The server sends a card list which cannot be parsed after the first login, so reconnecting only succeeds if it is skipped.
+     */
+    private static void testReconnectWithCachedCards() throws Exception {
+        TestServer server = new TestServer(malformedCardReply);
+        server.dropNextOffers.set(true);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setCardCacheMaxAge(60_000);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+
+        CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+        assert offers.isOk();
+        assert server.connections.get() == 2;
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("ReconnectWithCachedCards test passed!");
+    }
+
+    /**
+     * Asserts that logging in as a different user closes the sessions of the first user, including standbys,
+     * so that failing over afterwards stays logged in as the second user.
+     */
+    private static void testLoginTwice() throws Exception {
+        TestServer server = new TestServer(cardReply);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setStandbyCount(1);
+        List<Card> testerCards = hollomonClient.login("tester", "password");
+        assert testerCards != null;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 1);
+
+        List<Card> otherCards = hollomonClient.login("otheruser", "password");
+        assert otherCards != null;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 1);
+        waitUntil(() -> server.openConnections("tester") == 0);
+
+        // Fail over to the standby, which should also be logged in as the second user
+        server.dropNextOffers.set(true);
+        CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+        assert offers.isOk();
+        long credits = hollomonClient.getCredits();
+        assert credits == "otheruser".length();
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("LoginTwice test passed!");
+    }
+
+    /**
+     * Asserts that when the server stops replying without closing the connection, the read timeout is treated as a lost connection
+     * and the offers are fetched through the standby session.
+     */
+    private static void testSilentServerFailover() throws Exception {
+        TestServer server = new TestServer(cardReply);
+        server.stallNextOffers.set(true);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setReadTimeout(200);
+        hollomonClient.setStandbyCount(1);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 1);
+
+        CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+        assert offers.isOk();
+        assert offers.getValue().size() == 1;
+        // The silent connection is closed rather than kept
+        waitUntil(() -> server.openConnections("tester") == 2);
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("SilentServerFailover test passed!");
+    }
+
+    /**
+     * Asserts that a standby session which the server has closed is not used, and the client logs in again instead.
+     */
+    private static void testClosedStandbySkipped() throws Exception {
+        TestServer server = new TestServer(cardReply);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setStandbyCount(1);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 1);
+
+        // Close every connection so the standby is dead before it is needed
+        server.closeAll();
+        waitUntil(() -> server.openConnections("tester") == 0);
+
+        CommandResult<List<Card>> offers = hollomonClient.tryGetOffers();
+        assert offers.isOk();
+        assert offers.getValue().size() == 1;
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("ClosedStandbySkipped test passed!");
+    }
+
+    /**
+     * Asserts that when the reply to BUY is lost, the cached cards are not used to log in again, since the card may have been bought.
+     * The server sends a card list which cannot be parsed after the first login, so logging in again fails only if the card list is downloaded.
+     */
+    private static void testLostBuyReplyDropsCache() throws Exception {
+        TestServer server = new TestServer(malformedCardReply);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setCardCacheMaxAge(60_000);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+
+        CommandResult<Boolean> bought = hollomonClient.tryBuyCard(new Card(54321, "Gate Lodge", Rank.COMMON, 1));
+        assert bought.getStatus() == CommandResult.Status.FAILED;
+        assert bought.getMessage().startsWith("Connection lost and could not reconnect.");
+        assert server.connections.get() == 2;
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("LostBuyReplyDropsCache test passed!");
+    }
+
+    /**
+     * Asserts that lowering the number of standby sessions closes the ones no longer needed.
+     */
+    private static void testLowerStandbyCount() throws Exception {
+        TestServer server = new TestServer(cardReply);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setStandbyCount(2);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 2);
+        waitUntil(() -> server.openConnections("tester") == 3);
+
+        hollomonClient.setStandbyCount(0);
+        int readyStandbys = hollomonClient.getReadyStandbyCount();
+        assert readyStandbys == 0;
+        waitUntil(() -> server.openConnections("tester") == 1);
+
+        hollomonClient.close();
+        server.close();
+
+        System.out.println("LowerStandbyCount test passed!");
+    }
+
+    /**
+     * Asserts that a session which fails over to a standby is recorded across both connections,
+     * and that replaying it gives the same offers, with the replayed client logging in again where the connection was lost.
+     */
+    private static void testRecordFailover() throws Exception {
+        TestServer server = new TestServer(cardReply);
+        server.dropNextOffers.set(true);
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        SessionRecorder recorder = new SessionRecorder(capture);
+
+        HollomonClient hollomonClient = server.newClient();
+        hollomonClient.setRecorder(recorder);
+        hollomonClient.setStandbyCount(1);
+        List<Card> cards = hollomonClient.login("tester", "password");
+        assert cards.size() == 1;
+        waitUntil(() -> hollomonClient.getReadyStandbyCount() == 1);
+        CommandResult<List<Card>> recordedOffers = hollomonClient.tryGetOffers();
+        assert recordedOffers.isOk();
+        hollomonClient.close();
+        recorder.close();
+        server.close();
+
+        HollomonClient replayClient = new HollomonClient(new SessionReplayer(new ByteArrayInputStream(capture.toByteArray()), false));
+        List<Card> replayedCards = replayClient.login("tester", "password");
+        assert replayedCards.size() == 1;
+        CommandResult<List<Card>> offers = replayClient.tryGetOffers();
+        assert offers.isOk();
+        assert offers.getValue().size() == 1;
+        replayClient.close();
+
+        System.out.println("RecordFailover test passed!");
+    }
+
+    /**
+     * Waits up to 5 seconds for the given condition to become true.
+     * Fails even when assertions are disabled, since later steps rely on the condition.
+     *
+     * @param condition     The condition to wait for.
+     * @throws AssertionError If the condition did not become true in time.
+     */
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out waiting for condition.");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -1,19 +1,52 @@
+import jdk.net.ExtendedSocketOptions;
+
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Used to communicate with the server.
  * Allows user to log in to view their credits and owned cards, view the cards on offer, as well as buy and sell cards.
+ * <br>
+ * Each command has a typed variant (e.g. {@link HollomonClient#tryGetOffers()}) returning a {@link CommandResult}, which reports timeouts separately from other failures.
+ * Connect, read and per-command timeouts can be set before logging in.
+ * If a command times out, the rest of its reply is skipped before the next command is sent, so the connection stays usable.
+ * <br>
+ * If the connection drops, the client switches to a standby session which is already logged in (see {@link HollomonClient#setStandbyCount(int)}),
+ * or logs in again, and retries the command if it is safe to repeat.
+ * <br>
+ * The offers list, which can be large, can be read by a {@link CardPipeline}, which overlaps reading, parsing and sorting (see {@link HollomonClient#setPipelinedReads(boolean)}).
  *
  * @see CardInputStream
+ * @see CardPipeline
+ * @see CommandResult
  *
  * @author DanielJudd
  */
 public class HollomonClient {
 
+    /**
+     * Seconds a connection can be idle before TCP keep-alive probes are sent.
+     */
+    private static final int KEEP_ALIVE_IDLE = 30;
+    /**
+     * Seconds between TCP keep-alive probes.
+     */
+    private static final int KEEP_ALIVE_INTERVAL = 10;
+    /**
+     * Unanswered TCP keep-alive probes before the connection is dropped.
+     */
+    private static final int KEEP_ALIVE_COUNT = 3;
+
     /**
      * The server address.
      */
@@ -24,17 +57,182 @@ public class HollomonClient {
     private final int port;
 
     /**
-     * The socket into the server.
+     * The session currently used to send commands.
+     */
+    private Session session;
+    /**
+     * Sessions which are already logged in, ready to replace {@link HollomonClient#session} if it fails.
+     */
+    private final Deque<Session> standbySessions = new ConcurrentLinkedDeque<>();
+    /**
+     * Logs in new standby sessions in the background. Created when first needed.
+     */
+    private ExecutorService standbyExecutor;
+    /**
+     * Reads the offers list when pipelined reads are enabled, otherwise null.
+     */
+    private CardPipeline pipeline;
+
+    /**
+     * If set, replaces the server. The session is read from this {@link SessionReplayer} rather than a {@link Socket}.
+     */
+    private final SessionReplayer replayer;
+    /**
+     * If set, every byte sent to and received from the server is captured by this {@link SessionRecorder}.
+     */
+    private SessionRecorder recorder;
+
+    /**
+     * The replies the server may still send for a command which did not finish. Skipped before the next command is sent.
+     */
+    private enum PendingReply {
+        /**
+         * Nothing left to read.
+         */
+        NONE,
+        /**
+         * A single line is left to read.
+         */
+        LINE,
+        /**
+         * Lines are left to read up to and including "OK". Only used where no earlier line can be "OK".
+         */
+        UNTIL_OK,
+        /**
+         * The rest of a card list is left to read, skipped card by card up to the "OK" header.
+         */
+        CARDS,
+        /**
+         * The login response is left to read, followed by a card list.
+         */
+        LOGIN
+    }
+
+    /**
+     * Reads the server's reply to a command.
+     *
+     * @param <T>   The type of value returned by the command.
+     */
+    @FunctionalInterface
+    private interface ReplyReader<T> {
+        /**
+         * Reads the reply using the given {@link CardInputStream}.
+         *
+         * @param cardReader    The reader of the session the command was sent on.
+         * @return The result of the command.
+         * @throws IOException If the reply could not be read or timed out.
+         */
+        CommandResult<T> read(CardInputStream cardReader) throws IOException;
+    }
+
+    /**
+     * A single logged in connection to the server.
+     */
+    private static class Session {
+        /**
+         * The socket into the server, or null if replaying a recorded session.
+         */
+        private final Socket socket;
+        /**
+         * The writer used to write to the server.
+         */
+        private final BufferedWriter writer;
+        /**
+         * Reads lines from the server. Can also load {@link Card} objects using {@link CardInputStream#readCard()}.
+         */
+        private final CardInputStream cardReader;
+        /**
+         * Records this session's connection, or null if not recording.
+         */
+        private final SessionRecorder.Connection recording;
+        /**
+         * The reply still to be skipped from the last command which did not finish.
+         */
+        private PendingReply pendingReply = PendingReply.NONE;
+        /**
+         * True once the connection has been lost. The session cannot be used again.
+         */
+        private boolean broken;
+
+        /**
+         * Constructs a new Session using the given streams.
+         *
+         * @param socket        The socket into the server, or null if replaying a recorded session.
+         * @param writer        The writer used to write to the server.
+         * @param cardReader    The reader used to read from the server.
+         * @param recording     Records the connection, or null if not recording.
+         */
+        private Session(Socket socket, BufferedWriter writer, CardInputStream cardReader, SessionRecorder.Connection recording) {
+            this.socket = socket;
+            this.writer = writer;
+            this.cardReader = cardReader;
+            this.recording = recording;
+        }
+
+        /**
+         * Starts writing this session to the capture, if it is being recorded.
+         */
+        private void attachRecording() {
+            if (recording != null) recording.attach();
+        }
+
+        /**
+         * Closes the {@link Session#cardReader}, {@link Session#writer} and {@link Session#socket}.
+         */
+        private void close() {
+            try {
+                // Close reader and writer
+                cardReader.close();
+                writer.close();
+                // Close socket
+                if (socket != null) socket.close();
+            } catch (Exception e) {
+                System.out.println("Failed to close resources. " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The time in milliseconds to wait for a connection to the server. 0 means wait forever.
      */
-    private Socket socket;
+    private int connectTimeout;
     /**
-     * The writer used to write to the server.
+     * The time in milliseconds to wait for any single read from the server. 0 means wait forever.
      */
-    private BufferedWriter writer;
+    private int readTimeout;
     /**
-     * Reads lines from the server. Can also load {@link Card} objects using {@link CardInputStream#readCard()}.
+     * The time in milliseconds each command has to receive its whole reply. 0 means no limit.
      */
-    private CardInputStream cardReader;
+    private int commandTimeout;
+
+    /**
+     * The number of standby sessions to keep logged in.
+     */
+    private volatile int standbyCount;
+    /**
+     * How long in milliseconds {@link HollomonClient#cachedCards} can be used instead of downloading the cards again when reconnecting. 0 means never.
+     */
+    private int cardCacheMaxAge;
+    /**
+     * The username of the logged in user, used to log in standby sessions. Null if not logged in.
+     */
+    private volatile String username;
+    /**
+     * The password of the logged in user, used to log in standby sessions.
+     */
+    private volatile String password;
+    /**
+     * Counts logins and closes, so that a standby session logged in for an earlier login is never kept.
+     */
+    private volatile int loginGeneration;
+    /**
+     * The last list of owned cards downloaded from the server.
+     */
+    private volatile List<Card> cachedCards;
+    /**
+     * The {@link System#nanoTime()} when {@link HollomonClient#cachedCards} was downloaded.
+     */
+    private long cachedCardsTime;
 
     /**
      * Constructs a new HollomonClient with the given server and port.
@@ -45,10 +243,115 @@ public class HollomonClient {
     public HollomonClient(String server, int port) {
         this.server = server;
         this.port = port;
+        this.replayer = null;
+    }
+
+    /**
+     * Constructs a new HollomonClient which plays back a recorded session instead of connecting to a server.
+     *
+     * @param replayer  The {@link SessionReplayer} holding the recorded session.
+     */
+    public HollomonClient(SessionReplayer replayer) {
+        this.server = null;
+        this.port = -1;
+        this.replayer = replayer;
+    }
+
+    /**
+     * Sets a {@link SessionRecorder} to capture the session with. Must be called before {@link HollomonClient#login(String, String)}.
+     * Every connection used after logging in is recorded, including standby sessions once they take over and new logins after the connection drops.
+     *
+     * @param recorder  The {@link SessionRecorder} to use, or null to stop recording future sessions.
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Sets the time to wait for a connection to the server. Must be called before {@link HollomonClient#login(String, String)}.
+     *
+     * @param connectTimeout    The timeout in milliseconds. 0 means wait forever.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Sets the time to wait for any single read from the server. Must be called before {@link HollomonClient#login(String, String)}.
+     * If a command gets no reply at all within this time, the connection is treated as lost and the client fails over.
+     *
+     * @param readTimeout       The timeout in milliseconds. 0 means wait forever, although TCP keep-alive still notices a dead connection within a few minutes where supported.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets the time each command, including login, has to receive its whole reply.
+     * The limit covers everything the command does: the credit check made by {@link HollomonClient#buyCard(Card)},
+     * and reconnecting and sending the command again if the connection drops.
+     *
+     * @param commandTimeout    The timeout in milliseconds. 0 means no limit.
+     */
+    public void setCommandTimeout(int commandTimeout) {
+        this.commandTimeout = commandTimeout;
+    }
+
+    /**
+     * Sets the number of standby sessions to keep logged in, ready to take over if the connection drops.
+     * Standby sessions are logged in in the background after login. They are not used when replaying a recorded session.
+     *
+     * Lowering the number closes any standby sessions which are no longer needed.
+     *
+     * @param standbyCount      The number of standby sessions. 0 means none.
+     */
+    public void setStandbyCount(int standbyCount) {
+        this.standbyCount = standbyCount;
+        Session surplus;
+        while (standbySessions.size() > standbyCount && (surplus = standbySessions.pollLast()) != null) surplus.close();
+        if (username != null) replenishStandbySessions();
+    }
+
+    /**
+     * Returns the number of standby sessions which are logged in and ready.
+     *
+     * @return the number of ready standby sessions.
+     */
+    public int getReadyStandbyCount() {
+        return standbySessions.size();
+    }
+
+    /**
+     * Sets how old the last downloaded list of owned cards can be and still be used when logging in again after the connection drops.
+     * While it is recent enough, the card list the server sends on login is skipped instead of being parsed.
+     * The list is refreshed by login and {@link HollomonClient#getCards()}, and is no longer used once a card is bought or sold, or a buy or sell may have happened but its reply was lost.
+     *
+     * @param cardCacheMaxAge   The maximum age in milliseconds. 0 means always download the cards.
+     */
+    public void setCardCacheMaxAge(int cardCacheMaxAge) {
+        this.cardCacheMaxAge = cardCacheMaxAge;
+    }
+
+    /**
+     * Sets whether the offers list is read by a {@link CardPipeline}, which reads from the server on one thread while parsing on another.
+     * Only OFFERS uses it, since its reply is the one which grows large. The owned cards sent on login and by CARDS are always read on the calling thread,
+     * where handing them between threads would cost more than it saves. The cards returned are the same either way.
+     *
+     * @param pipelinedReads    true to read the offers list with a {@link CardPipeline}, false to read it on the calling thread.
+     */
+    public void setPipelinedReads(boolean pipelinedReads) {
+        if (pipelinedReads && pipeline == null) {
+            pipeline = new CardPipeline();
+        } else if (!pipelinedReads && pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+        }
     }
 
     /**
      * Creates a new {@link Socket} using the {@link HollomonClient#server} and {@link HollomonClient#port}.
+     * If a {@link HollomonClient#replayer} was given, its streams are used instead of a socket.
+     * If a {@link HollomonClient#recorder} is set, the streams are recorded.
      * Attempts to log in using the given username and password.
      * If successful, retrieves the cards from the {@link InputStream}.
      *
@@ -57,118 +360,307 @@ public class HollomonClient {
      * @return              A {@link List} of {@link Card} objects if login successful, otherwise null.
      */
     public List<Card> login(String username, String password) {
+        return valueOrReport(tryLogin(username, password), "Error when attempting to connect to server.", null);
+    }
+
+    /**
+     * Attempts to log in using the given username and password. See {@link HollomonClient#login(String, String)}.
+     * Any sessions from an earlier login are closed first. If successful, starts logging in standby sessions.
+     * Otherwise the connection is closed, and commands fail as not logged in until a login succeeds.
+     *
+     * @param username      The unique name of the user attempting to log in.
+     * @param password      The password of the user attempting to log in.
+     * @return              A {@link CommandResult} holding a {@link List} of {@link Card} objects.
+     *                      {@link CommandResult.Status#REJECTED} if the username or password was wrong.
+     */
+    public CommandResult<List<Card>> tryLogin(String username, String password) {
+        closeSessions();
+        // Connecting and logging in share one deadline
+        long deadline = newDeadline();
         try {
-            socket = new Socket(server, port);
-
-            // Create reader amd writer
-            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            cardReader = new CardInputStream(socket.getInputStream());
-
-            // Attempt login
-            writer.write(username);
-            writer.newLine();
-            writer.write(password);
-            writer.newLine();
-            writer.flush();
+            session = openSession(deadline);
+            session.attachRecording();
+        } catch (SocketTimeoutException e) {
+            return CommandResult.of(CommandResult.Status.TIMED_OUT, "Timed out connecting to server. " + e.getMessage());
         } catch (Exception e) {
             // Should only occur when the server is down
-            System.out.println("Error when attempting to connect to server. " + e.getMessage());
-            return null;
+            return CommandResult.of(CommandResult.Status.FAILED, e.getMessage());
+        }
+
+        CommandResult<List<Card>> result = logIn(session, deadline, username, password, false);
+        if (!result.isOk()) {
+            // Never send commands on a connection which is not logged in
+            session.close();
+            session = null;
+            return result;
         }
+        this.username = username;
+        this.password = password;
+        cacheCards(result.getValue());
+        replenishStandbySessions();
+        return result;
+    }
 
-        // Read response
-        String response = cardReader.readResponse();
-        // Check if response is the expected response
-        if (response.equals("User " + username + " logged in successfully.")) {
-            // Login successful
-            return readCards();
+    /**
+     * Replaces the current session with a standby session, or if there are none, logs in again.
+     * When logging in again, the card list is not downloaded if a recent copy is held (see {@link HollomonClient#setCardCacheMaxAge(int)}).
+     * Called automatically when the connection drops.
+     *
+     * @return              A {@link CommandResult} holding true if a new session is ready.
+     */
+    public CommandResult<Boolean> reconnect() {
+        return reconnect(newDeadline());
+    }
+
+    /**
+     * Replaces the current session with a standby session, or if there are none, logs in again before the given deadline.
+     *
+     * @param deadline      The {@link System#nanoTime()} by which logging in must finish, or {@link CardInputStream#NO_DEADLINE}.
+     * @return              A {@link CommandResult} holding true if a new session is ready.
+     */
+    private CommandResult<Boolean> reconnect(long deadline) {
+        if (username == null) return CommandResult.of(CommandResult.Status.FAILED, "Not logged in.");
+        if (session != null) session.close();
+
+        // Use a standby session if there is one which the server has not closed
+        Session standby;
+        while ((standby = standbySessions.poll()) != null) {
+            if (standby.cardReader.isClosedByServer()) {
+                standby.close();
+                continue;
+            }
+            session = standby;
+            session.attachRecording();
+            replenishStandbySessions();
+            return CommandResult.ok(true);
+        }
+
+        // Otherwise log in again
+        try {
+            session = openSession(deadline);
+            session.attachRecording();
+        } catch (SocketTimeoutException e) {
+            return CommandResult.of(CommandResult.Status.TIMED_OUT, "Timed out connecting to server. " + e.getMessage());
+        } catch (Exception e) {
+            return CommandResult.of(CommandResult.Status.FAILED, e.getMessage());
+        }
+        boolean skipCards = hasRecentCards();
+        CommandResult<List<Card>> result = logIn(session, deadline, username, password, skipCards);
+        if (!result.isOk()) {
+            // Never send commands on a connection which is not logged in, so the next command reconnects again
+            session.close();
+            session.broken = true;
+            return CommandResult.of(result.getStatus(), result.getMessage());
+        }
+
+        if (!skipCards) cacheCards(result.getValue());
+        replenishStandbySessions();
+        return CommandResult.ok(true);
+    }
+
+    /**
+     * Opens a new connection to the server, or to the {@link HollomonClient#replayer} if one was given.
+     *
+     * If a {@link HollomonClient#recorder} is set, the streams are recorded, but nothing reaches the capture until {@link Session#attachRecording()} is called.
+     *
+     * @param deadline      The {@link System#nanoTime()} by which the connection must be made, or {@link CardInputStream#NO_DEADLINE}.
+     * @return              A new {@link Session} which has not logged in yet.
+     * @throws IOException If the connection could not be made.
+     */
+    private Session openSession(long deadline) throws IOException {
+        Socket socket = null;
+        InputStream input;
+        OutputStream output;
+        if (replayer != null) {
+            input = replayer.getInputStream();
+            output = replayer.getOutputStream();
         } else {
-            return null;
+            socket = new Socket();
+            socket.setKeepAlive(true);
+            // The default keep-alive idle time is hours, so shorten it where possible to notice a silent server
+            if (socket.supportedOptions().contains(ExtendedSocketOptions.TCP_KEEPIDLE)) {
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPIDLE, KEEP_ALIVE_IDLE);
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPINTERVAL, KEEP_ALIVE_INTERVAL);
+                socket.setOption(ExtendedSocketOptions.TCP_KEEPCOUNT, KEEP_ALIVE_COUNT);
+            }
+            socket.connect(new InetSocketAddress(server, port), connectTimeout(deadline));
+            input = socket.getInputStream();
+            output = socket.getOutputStream();
         }
+        // Tee both directions into the capture
+        SessionRecorder.Connection recording = null;
+        if (recorder != null) {
+            recording = recorder.newConnection();
+            input = recording.recordInput(input);
+            output = recording.recordOutput(output);
+        }
+
+        // Create reader amd writer
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
+        CardInputStream cardReader = new CardInputStream(input, socket, readTimeout);
+        return new Session(socket, writer, cardReader, recording);
+    }
+
+    /**
+     * Logs in on the given session.
+     *
+     * @param session       The session to log in on.
+     * @param username      The unique name of the user attempting to log in.
+     * @param password      The password of the user attempting to log in.
+     * @param skipCards     If true, the card list sent by the server is skipped rather than parsed, and the cached cards are returned.
+     * @return              A {@link CommandResult} holding a {@link List} of {@link Card} objects.
+     */
+    private CommandResult<List<Card>> logIn(Session session, long deadline, String username, String password, boolean skipCards) {
+        return execute(session, deadline, PendingReply.LOGIN, cardReader -> {
+            // Check if response is the expected response
+            String response = cardReader.readLine();
+            if (!response.equals("User " + username + " logged in successfully.")) {
+                return CommandResult.of(CommandResult.Status.REJECTED, response);
+            }
+            // Login successful, so only the card list is left
+            session.pendingReply = PendingReply.CARDS;
+            if (skipCards) {
+                cardReader.skipCards();
+                return CommandResult.ok(getCachedCards());
+            }
+            return CommandResult.ok(readCards(cardReader, false));
+        }, username, password);
+    }
+
+    /**
+     * Logs in standby sessions in the background until there are {@link HollomonClient#standbyCount} of them.
+     */
+    private synchronized void replenishStandbySessions() {
+        if (replayer != null || standbyCount <= standbySessions.size()) return;
+        if (standbyExecutor == null) {
+            standbyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "HollomonClient-standby");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        int generation = loginGeneration;
+        String username = this.username;
+        String password = this.password;
+        standbyExecutor.execute(() -> {
+            while (standbySessions.size() < standbyCount && loginGeneration == generation) {
+                try {
+                    long deadline = newDeadline();
+                    Session standby = openSession(deadline);
+                    if (!logIn(standby, deadline, username, password, true).isOk()) {
+                        standby.close();
+                        return;
+                    }
+                    standbySessions.add(standby);
+                    // Client may have been closed, logged in again, or asked for fewer standbys while logging in
+                    boolean unwanted = loginGeneration != generation || standbySessions.size() > standbyCount;
+                    if (unwanted && standbySessions.remove(standby)) standby.close();
+                } catch (Exception e) {
+                    System.out.println("Failed to open standby session. " + e.getMessage());
+                    return;
+                }
+            }
+        });
     }
 
     /**
      * Retrieves the number of credits the user currently has.
      * Checks that the response ends with "OK"
      *
-     * @return              The number of credits
+     * @return              The number of credits, or -1 if they could not be retrieved.
      */
     public long getCredits() {
-        try {
-            writer.write("CREDITS");
-            writer.newLine();
-            writer.flush();
+        return valueOrReport(tryGetCredits(), "Failed to retrieve credits.", -1L);
+    }
 
+    /**
+     * Retrieves the number of credits the user currently has. See {@link HollomonClient#getCredits()}.
+     *
+     * @return              A {@link CommandResult} holding the number of credits.
+     */
+    public CommandResult<Long> tryGetCredits() {
+        return requestCredits(newDeadline());
+    }
+
+    /**
+     * Retrieves the number of credits the user currently has before the given deadline.
+     *
+     * @param deadline      The {@link System#nanoTime()} by which the reply must be read, or {@link CardInputStream#NO_DEADLINE}.
+     * @return              A {@link CommandResult} holding the number of credits.
+     */
+    private CommandResult<Long> requestCredits(long deadline) {
+        return sendCommand(deadline, true, PendingReply.UNTIL_OK, cardReader -> {
             // Read response
-            String creditResponse = cardReader.readResponse();
+            String creditResponse = cardReader.readLine();
             // Check response is OK
-            String okResponse = cardReader.readResponse();
-            if (okResponse.equals("OK")) return Long.parseLong(creditResponse);
+            String okResponse = cardReader.readLine();
+            if (okResponse.equals("OK")) return CommandResult.ok(Long.parseLong(creditResponse));
             throw new IOException("Response from server incorrect. Received: {" + creditResponse + ", " + okResponse + "}");
-        } catch (Exception e) {
-            System.out.println("Failed to retrieve credits. " + e.getMessage());
-            return -1;
-        }
+        }, "CREDITS");
     }
 
     /**
      * Retrieves the cards owned by the user.
      *
-     * @return              A {@link List} of {@link Card} objects.
+     * @return              A {@link List} of {@link Card} objects, or null if they could not be retrieved.
      */
     public List<Card> getCards() {
-        try {
-            writer.write("CARDS");
-            writer.newLine();
-            writer.flush();
+        return valueOrReport(tryGetCards(), "Failed to get owned cards.", null);
+    }
 
-            return readCards();
-        } catch (Exception e) {
-            System.out.println("Failed to get owned cards. " + e.getMessage());
-            return null;
-        }
+    /**
+     * Retrieves the cards owned by the user. See {@link HollomonClient#getCards()}.
+     *
+     * @return              A {@link CommandResult} holding a {@link List} of {@link Card} objects.
+     */
+    public CommandResult<List<Card>> tryGetCards() {
+        CommandResult<List<Card>> result = sendCommand(true, PendingReply.CARDS, cardReader -> CommandResult.ok(readCards(cardReader, false)), "CARDS");
+        if (result.isOk()) cacheCards(result.getValue());
+        return result;
     }
 
     /**
      * Retrieves the cards on offer.
      *
-     * @return              A {@link List} of {@link Card} objects.
+     * @return              A {@link List} of {@link Card} objects, or null if they could not be retrieved.
      */
     public List<Card> getOffers() {
-        try {
-            writer.write("OFFERS");
-            writer.newLine();
-            writer.flush();
+        return valueOrReport(tryGetOffers(), "Failed to get offers.", null);
+    }
 
-            return readCards();
-        } catch (Exception e) {
-            System.out.println("Failed to get offers. " + e.getMessage());
-            return null;
-        }
+    /**
+     * Retrieves the cards on offer. See {@link HollomonClient#getOffers()}.
+     * If the command times out part way through, the rest of the offers are skipped before the next command.
+     *
+     * @return              A {@link CommandResult} holding a {@link List} of {@link Card} objects.
+     */
+    public CommandResult<List<Card>> tryGetOffers() {
+        return sendCommand(true, PendingReply.CARDS, cardReader -> CommandResult.ok(readCards(cardReader, true)), "OFFERS");
     }
 
     /**
      * Reads cards until {@link CardInputStream#readCard()} returns null.
+     * Uses the {@link HollomonClient#pipeline} if pipelined reads are enabled and the list may be large.
      *
-     * @return                  A {@link List} of {@link Card} objects.
+     * @param cardReader        The reader to read the cards from.
+     * @param large             true if the list may be large enough to be worth reading with the {@link HollomonClient#pipeline}.
+     * @return                  A sorted {@link List} of {@link Card} objects.
+     * @throws IOException If the cards could not be read or timed out.
      */
-    private List<Card> readCards() {
-        try {
-            // Create a new List
-            List<Card> cards = new ArrayList<>();
-            // Loop until no more cards
-            Card card;
-            while ((card = cardReader.readCard()) != null) {
-                // Add card to List
-                cards.add(card);
-            }
-            // Sort the cards using compareTo function
-            Collections.sort(cards);
-            return cards;
-        } catch(Exception e) {
-            System.out.println("Failed to read all cards. " + e.getMessage());
-            return null;
+    private List<Card> readCards(CardInputStream cardReader, boolean large) throws IOException {
+        if (large && pipeline != null) return pipeline.readCards(cardReader);
+
+        // Create a new List
+        List<Card> cards = new ArrayList<>();
+        // Loop until no more cards
+        Card card;
+        while ((card = cardReader.readCard()) != null) {
+            // Add card to List
+            cards.add(card);
         }
+        // Sort the cards using compareTo function
+        Collections.sort(cards);
+        return cards;
     }
 
     /**
@@ -178,21 +670,28 @@ public class HollomonClient {
      * @return                  true if the card was bought successfully, otherwise false.
      */
     public boolean buyCard(Card card) {
-        // Check that user can afford card
-        long credits = getCredits();
-        if (credits >= card.getPrice() && credits >= 0) {
-            try {
-                writer.write("BUY " + card.getId());
-                writer.newLine();
-                writer.flush();
+        return valueOrReport(tryBuyCard(card), "Failed buy card.", false);
+    }
 
-                return cardReader.readResponse().equals("OK");
-            } catch (Exception e) {
-                System.out.println("Failed buy card. " + e.getMessage());
-                return false;
-            }
+    /**
+     * Asks the server to buy a given card. See {@link HollomonClient#buyCard(Card)}.
+     * Not retried if the connection drops, since the server may already have completed it.
+     *
+     * @param card              The card that the user wants to buy.
+     * @return                  A {@link CommandResult} holding true if the card was bought.
+     *                          {@link CommandResult.Status#REJECTED} if the user cannot afford the card or the server refused.
+     */
+    public CommandResult<Boolean> tryBuyCard(Card card) {
+        // Both round trips share one deadline
+        long deadline = newDeadline();
+
+        // Check that user can afford card
+        CommandResult<Long> credits = requestCredits(deadline);
+        if (!credits.isOk()) return CommandResult.of(credits.getStatus(), credits.getMessage());
+        if (credits.getValue() < card.getPrice()) {
+            return CommandResult.of(CommandResult.Status.REJECTED, "Not enough credits. Have " + credits.getValue() + ", need " + card.getPrice() + ".");
         }
-        return false;
+        return sendCommand(deadline, false, PendingReply.LINE, HollomonClient::readOkReply, "BUY " + card.getId());
     }
 
     /**
@@ -203,30 +702,258 @@ public class HollomonClient {
      * @return                  true if the card was sold successfully, otherwise false.
      */
     public boolean sellCard(Card card, long price) {
+        return valueOrReport(trySellCard(card, price), "Could not sell card.", false);
+    }
+
+    /**
+     * Asks the server to sell a given card. See {@link HollomonClient#sellCard(Card, long)}.
+     * Not retried if the connection drops, since the server may already have completed it.
+     *
+     * @param card              The card that the user wants to sell.
+     * @param price             The price the user wants to sell the card for.
+     * @return                  A {@link CommandResult} holding true if the card was put up for sale.
+     */
+    public CommandResult<Boolean> trySellCard(Card card, long price) {
+        return sendCommand(false, PendingReply.LINE, HollomonClient::readOkReply, "SELL " + card.getId() + " " + price);
+    }
+
+    /**
+     * Reads a single line reply which is "OK" if the server accepted the command.
+     *
+     * @param cardReader        The reader to read the reply from.
+     * @return                  A {@link CommandResult} holding true if accepted, otherwise {@link CommandResult.Status#REJECTED}.
+     * @throws IOException If the reply could not be read or timed out.
+     */
+    private static CommandResult<Boolean> readOkReply(CardInputStream cardReader) throws IOException {
+        String response = cardReader.readLine();
+        if (response.equals("OK")) return CommandResult.ok(true);
+        return CommandResult.of(CommandResult.Status.REJECTED, response);
+    }
+
+    /**
+     * Sends a command on the current session. If the connection drops, switches to a new session and, if repeatable, sends the command again.
+     *
+     * @param repeatable        true if the command has no effect on the server, so it is safe to send again.
+     * @param reply             What is left to read if the reply is not read completely.
+     * @param replyReader       Reads the reply.
+     * @param lines             The lines of the command.
+     * @param <T>               The type of value returned by the command.
+     * @return                  The result of the command.
+     */
+    private <T> CommandResult<T> sendCommand(boolean repeatable, PendingReply reply, ReplyReader<T> replyReader, String... lines) {
+        return sendCommand(newDeadline(), repeatable, reply, replyReader, lines);
+    }
+
+    /**
+     * Sends a command on the current session before the given deadline. See {@link HollomonClient#sendCommand(boolean, PendingReply, ReplyReader, String...)}.
+     * Reconnecting and sending the command again share the same deadline.
+     *
+     * @param deadline          The {@link System#nanoTime()} by which the reply must be read, or {@link CardInputStream#NO_DEADLINE}.
+     * @param repeatable        true if the command has no effect on the server, so it is safe to send again.
+     * @param reply             What is left to read if the reply is not read completely.
+     * @param replyReader       Reads the reply.
+     * @param lines             The lines of the command.
+     * @param <T>               The type of value returned by the command.
+     * @return                  The result of the command.
+     */
+    private <T> CommandResult<T> sendCommand(long deadline, boolean repeatable, PendingReply reply, ReplyReader<T> replyReader, String... lines) {
+        if (session == null) return CommandResult.of(CommandResult.Status.FAILED, "Not logged in.");
+
+        CommandResult<T> result = execute(session, deadline, reply, replyReader, lines);
+        // Commands which are not safe to repeat buy or sell cards. Unless the server refused, the command may have
+        // gone through even if its reply was lost, so the cached cards are dropped before logging in again
+        if (!repeatable && result.getStatus() != CommandResult.Status.REJECTED) cachedCards = null;
+        // Each standby may also have been dropped, so allow one attempt per standby plus a fresh login
+        int attempts = standbySessions.size() + 1;
+        while (session.broken && username != null && attempts-- > 0) {
+            CommandResult<Boolean> reconnected = reconnect(deadline);
+            if (!reconnected.isOk()) return CommandResult.of(reconnected.getStatus(), "Connection lost and could not reconnect. " + reconnected.getMessage());
+            if (!repeatable) break;
+            result = execute(session, deadline, reply, replyReader, lines);
+        }
+        return result;
+    }
+
+    /**
+     * Sends a command on the given session and reads its reply before the given deadline.
+     * Any reply left over from an earlier command which timed out is skipped first.
+     * If the connection is lost, the session is marked as broken.
+     *
+     * @param session           The session to send the command on.
+     * @param deadline          The {@link System#nanoTime()} by which the reply must be read, or {@link CardInputStream#NO_DEADLINE}.
+     * @param reply             What is left to read if the reply is not read completely.
+     * @param replyReader       Reads the reply.
+     * @param lines             The lines of the command.
+     * @param <T>               The type of value returned by the command.
+     * @return                  The result of the command. {@link CommandResult.Status#TIMED_OUT} if the deadline passed.
+     */
+    private <T> CommandResult<T> execute(Session session, long deadline, PendingReply reply, ReplyReader<T> replyReader, String... lines) {
+        CardInputStream cardReader = session.cardReader;
+        cardReader.setDeadline(deadline);
+        long charsBefore = cardReader.getCharsReceived();
         try {
-            writer.write("SELL " + card.getId() + " " + price);
-            writer.newLine();
-            writer.flush();
+            skipPendingReply(session);
+
+            for (String line : lines) {
+                session.writer.write(line);
+                session.writer.newLine();
+            }
+            session.writer.flush();
 
-            return cardReader.readResponse().equals("OK");
+            session.pendingReply = reply;
+            CommandResult<T> result = replyReader.read(cardReader);
+            session.pendingReply = PendingReply.NONE;
+            return result;
+        } catch (SocketTimeoutException e) {
+            // A read timeout without getting a single character back is how a server which silently went away looks.
+            // Running out of command time only means the server is slow, so the connection is kept and the reply skipped later
+            if (cardReader.hasReadTimeoutExpired() && cardReader.getCharsReceived() == charsBefore) {
+                session.broken = true;
+                return CommandResult.of(CommandResult.Status.TIMED_OUT, "No reply before timeout, so the connection is treated as lost. " + e.getMessage());
+            }
+            return CommandResult.of(CommandResult.Status.TIMED_OUT, "Timed out waiting for server. " + e.getMessage());
+        } catch (CardPipeline.MalformedCardsException e) {
+            // The whole reply was read, so there is nothing left to skip
+            session.pendingReply = PendingReply.NONE;
+            return CommandResult.of(CommandResult.Status.FAILED, e.getMessage());
+        } catch (EOFException | SocketException e) {
+            session.broken = true;
+            return CommandResult.of(CommandResult.Status.FAILED, "Connection lost. " + e.getMessage());
         } catch (Exception e) {
-            System.out.println("Could not sell card. " + e.getMessage());
-            return false;
+            return CommandResult.of(CommandResult.Status.FAILED, e.getMessage());
+        } finally {
+            cardReader.setDeadline(CardInputStream.NO_DEADLINE);
+        }
+    }
+
+    /**
+     * Returns the deadline for a command starting now.
+     *
+     * @return                  {@link System#nanoTime()} plus the {@link HollomonClient#commandTimeout}, or {@link CardInputStream#NO_DEADLINE} if there is no limit.
+     */
+    private long newDeadline() {
+        return commandTimeout > 0 ? System.nanoTime() + commandTimeout * 1_000_000L : CardInputStream.NO_DEADLINE;
+    }
+
+    /**
+     * Returns the time to wait for a connection, so that it is made before the given deadline.
+     *
+     * @param deadline          The {@link System#nanoTime()} by which the connection must be made, or {@link CardInputStream#NO_DEADLINE}.
+     * @return                  The timeout in milliseconds. 0 means wait forever.
+     * @throws SocketTimeoutException If the deadline has already passed.
+     */
+    private int connectTimeout(long deadline) throws SocketTimeoutException {
+        if (deadline == CardInputStream.NO_DEADLINE) return connectTimeout;
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) throw new SocketTimeoutException("Deadline passed.");
+        // Round up so that a timeout of 0 (wait forever) is never used
+        int timeout = (int) Math.min(Integer.MAX_VALUE, (remaining + 999_999) / 1_000_000);
+        return connectTimeout > 0 ? Math.min(timeout, connectTimeout) : timeout;
+    }
+
+    /**
+     * Skips whatever is left of the reply to the last command on the session which did not finish, so the next reply starts at a known place.
+     *
+     * @param session           The session to skip the reply on.
+     * @throws IOException If the reply could not be read or timed out. The rest is then skipped before the next command.
+     */
+    private static void skipPendingReply(Session session) throws IOException {
+        switch (session.pendingReply) {
+            case LINE -> session.cardReader.readLine();
+            case UNTIL_OK -> skipUntilOk(session.cardReader);
+            case LOGIN -> {
+                session.cardReader.readLine();
+                session.pendingReply = PendingReply.CARDS;
+                session.cardReader.skipCards();
+            }
+            case CARDS -> session.cardReader.skipCards();
+            case NONE -> { }
         }
+        session.pendingReply = PendingReply.NONE;
+    }
+
+    /**
+     * Reads and discards lines up to and including "OK".
+     *
+     * @param cardReader        The reader to skip lines from.
+     * @throws IOException If the lines could not be read or timed out.
+     */
+    private static void skipUntilOk(CardInputStream cardReader) throws IOException {
+        while (!cardReader.readLine().equals("OK")) {
+            // Skip line
+        }
+    }
+
+    /**
+     * Stores a copy of the given owned cards so they can be reused when reconnecting.
+     *
+     * @param cards             The cards owned by the user.
+     */
+    private void cacheCards(List<Card> cards) {
+        cachedCards = new ArrayList<>(cards);
+        cachedCardsTime = System.nanoTime();
     }
 
     /**
-     * Closes the {@link HollomonClient#cardReader}, {@link HollomonClient#writer} and {@link HollomonClient#socket}.
+     * Returns whether the cached owned cards are recent enough to use instead of downloading them.
+     *
+     * @return                  true if the cached cards can be used, otherwise false.
+     */
+    private boolean hasRecentCards() {
+        return cachedCards != null && cardCacheMaxAge > 0 && System.nanoTime() - cachedCardsTime <= cardCacheMaxAge * 1_000_000L;
+    }
+
+    /**
+     * Returns a copy of the cached owned cards.
+     *
+     * @return                  A {@link List} of {@link Card} objects, or null if there are none cached.
+     */
+    private List<Card> getCachedCards() {
+        List<Card> cards = cachedCards;
+        return cards == null ? null : new ArrayList<>(cards);
+    }
+
+    /**
+     * Returns the value of a result. If the command failed or timed out, informs the user and returns the given value instead.
+     *
+     * @param result            The result of the command.
+     * @param failure           The message to print if the command failed or timed out.
+     * @param other             The value to return if the command did not succeed.
+     * @param <T>               The type of value returned by the command.
+     * @return                  The value of the result, or other.
+     */
+    private static <T> T valueOrReport(CommandResult<T> result, String failure, T other) {
+        if (result.getStatus() == CommandResult.Status.FAILED || result.getStatus() == CommandResult.Status.TIMED_OUT) {
+            System.out.println(failure + " " + result.getMessage());
+        }
+        return result.orElse(other);
+    }
+
+    /**
+     * Closes the current session and all standby sessions.
      */
     public void close() {
-        try {
-            // Close reader and writer
-            cardReader.close();
-            writer.close();
-            // Close socket
-            socket.close();
-        } catch (Exception e) {
-            System.out.println("Failed to close resources. " + e.getMessage());
+        closeSessions();
+        synchronized (this) {
+            if (standbyExecutor != null) standbyExecutor.shutdownNow();
+            standbyExecutor = null;
         }
+        if (pipeline != null) pipeline.close();
+        pipeline = null;
+    }
+
+    /**
+     * Forgets the logged in user, and closes the current session and all standby sessions.
+     */
+    private void closeSessions() {
+        username = null;
+        password = null;
+        cachedCards = null;
+        loginGeneration++;
+
+        if (session != null) session.close();
+        session = null;
+        Session standby;
+        while ((standby = standbySessions.poll()) != null) standby.close();
     }
 }
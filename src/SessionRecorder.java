@@ -0,0 +1,228 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the bytes exchanged between a {@link HollomonClient} and the server into a capture file.
+ * Each chunk of bytes is stored along with the time it was seen, so that the session can later be played back by a {@link SessionReplayer}.
+ * Only the length of what the client sends is stored, so passwords never reach the capture.
+ * <br>
+ * Capture format (repeated until end of file): elapsed nanoseconds (long), direction (byte), length (int), then the bytes for chunks from the server only.
+ * <br>
+ * A {@link HollomonClient} may use several connections in one session, for example when it fails over to a standby session.
+ * Each connection after the first is preceded by a {@link SessionRecorder#NEW_CONNECTION} record of length 0.
+ *
+ * @see SessionReplayer
+ *
+ * @author DanielJudd
+ */
+public class SessionRecorder implements Closeable {
+
+    /**
+     * Direction marker for bytes received from the server.
+     */
+    static final byte FROM_SERVER = '<';
+    /**
+     * Direction marker for bytes sent to the server.
+     */
+    static final byte TO_SERVER = '>';
+    /**
+     * Direction marker for the start of a new connection, such as after the client failed over. Has no bytes.
+     */
+    static final byte NEW_CONNECTION = '+';
+
+    /**
+     * The stream the capture is written to.
+     */
+    private final DataOutputStream capture;
+    /**
+     * The time the recorder was created. Record timestamps are relative to this.
+     */
+    private final long startNanos;
+    /**
+     * True once a {@link Connection} has been attached, so that later ones are marked as new connections.
+     */
+    private boolean connectionAttached;
+
+    /**
+     * Constructs a new SessionRecorder which writes its capture to the given {@link OutputStream}.
+     *
+     * @param output    The {@link OutputStream} where the capture will be written.
+     */
+    public SessionRecorder(OutputStream output) {
+        this.capture = new DataOutputStream(new BufferedOutputStream(output));
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Constructs a new SessionRecorder which writes its capture to the file at the given path.
+     *
+     * @param path      The path of the capture file. Any existing file is overwritten.
+     * @throws IOException If the file could not be opened.
+     */
+    public SessionRecorder(String path) throws IOException {
+        this(new FileOutputStream(path));
+    }
+
+    /**
+     * Appends a single record to the capture. The bytes are only written for chunks from the server.
+     *
+     * @param direction     Either {@link SessionRecorder#FROM_SERVER} or {@link SessionRecorder#TO_SERVER}.
+     * @param b             The buffer holding the bytes. Not used for {@link SessionRecorder#TO_SERVER}.
+     * @param off           The offset of the first byte in the buffer.
+     * @param len           The number of bytes to record.
+     * @throws IOException If the capture could not be written.
+     */
+    private void record(byte direction, byte[] b, int off, int len) throws IOException {
+        write(System.nanoTime() - startNanos, direction, b, off, len);
+    }
+
+    /**
+     * Appends a single record with the given timestamp to the capture. The bytes are only written for chunks from the server.
+     *
+     * @param nanos         The time the bytes were seen, relative to the start of the recording.
+     * @param direction     One of {@link SessionRecorder#FROM_SERVER}, {@link SessionRecorder#TO_SERVER} or {@link SessionRecorder#NEW_CONNECTION}.
+     * @param b             The buffer holding the bytes. Only used for {@link SessionRecorder#FROM_SERVER}.
+     * @param off           The offset of the first byte in the buffer.
+     * @param len           The number of bytes to record.
+     * @throws IOException If the capture could not be written.
+     */
+    private synchronized void write(long nanos, byte direction, byte[] b, int off, int len) throws IOException {
+        capture.writeLong(nanos);
+        capture.writeByte(direction);
+        capture.writeInt(len);
+        if (direction == FROM_SERVER) capture.write(b, off, len);
+    }
+
+    /**
+     * Creates a {@link Connection} to record a single connection to the server with.
+     * Nothing reaches the capture until {@link Connection#attach()} is called.
+     *
+     * @return A new {@link Connection} which is not attached yet.
+     */
+    Connection newConnection() {
+        return new Connection();
+    }
+
+    /**
+     * Records a single connection to the server.
+     * Until it is attached, everything is held in memory, so that a standby session can be recorded from its login but only appear
+     * in the capture once it is used.
+     */
+    class Connection {
+        /**
+         * A record held until the connection is attached.
+         *
+         * @param nanos         The time the bytes were seen, relative to the start of the recording.
+         * @param direction     Either {@link SessionRecorder#FROM_SERVER} or {@link SessionRecorder#TO_SERVER}.
+         * @param data          A copy of the bytes from the server, or null for bytes sent to the server.
+         * @param length        The number of bytes.
+         */
+        private record HeldRecord(long nanos, byte direction, byte[] data, int length) {}
+
+        /**
+         * Records held until the connection is attached.
+         */
+        private final List<HeldRecord> heldRecords = new ArrayList<>();
+        /**
+         * True once records go straight to the capture.
+         */
+        private boolean attached;
+
+        /**
+         * Wraps the given {@link InputStream} so that every byte read from it is recorded as coming from the server on this connection.
+         *
+         * @param input     The stream from the server.
+         * @return An {@link InputStream} which behaves like the given stream.
+         */
+        InputStream recordInput(InputStream input) {
+            return new FilterInputStream(input) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) record(FROM_SERVER, new byte[] {(byte) b}, 0, 1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    if (count > 0) record(FROM_SERVER, b, off, count);
+                    return count;
+                }
+            };
+        }
+
+        /**
+         * Wraps the given {@link OutputStream} so that every byte written to it is recorded as sent to the server on this connection.
+         *
+         * @param output    The stream to the server.
+         * @return An {@link OutputStream} which behaves like the given stream.
+         */
+        OutputStream recordOutput(OutputStream output) {
+            return new FilterOutputStream(output) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    record(TO_SERVER, null, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    record(TO_SERVER, null, 0, len);
+                }
+            };
+        }
+
+        /**
+         * Starts writing this connection to the capture, after a {@link SessionRecorder#NEW_CONNECTION} record if it is not the first.
+         * Anything held from before is written first, with the times it was seen.
+         */
+        synchronized void attach() {
+            if (attached) return;
+            attached = true;
+            try {
+                synchronized (SessionRecorder.this) {
+                    if (connectionAttached) write(System.nanoTime() - startNanos, NEW_CONNECTION, null, 0, 0);
+                    connectionAttached = true;
+                    for (HeldRecord held : heldRecords) write(held.nanos(), held.direction(), held.data(), 0, held.length());
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to record connection. " + e.getMessage());
+            }
+            heldRecords.clear();
+        }
+
+        /**
+         * Records bytes seen on this connection, or holds them if not attached yet.
+         *
+         * @param direction     Either {@link SessionRecorder#FROM_SERVER} or {@link SessionRecorder#TO_SERVER}.
+         * @param b             The buffer holding the bytes. Not used for {@link SessionRecorder#TO_SERVER}.
+         * @param off           The offset of the first byte in the buffer.
+         * @param len           The number of bytes to record.
+         * @throws IOException If the capture could not be written.
+         */
+        private synchronized void record(byte direction, byte[] b, int off, int len) throws IOException {
+            if (attached) {
+                SessionRecorder.this.record(direction, b, off, len);
+                return;
+            }
+            byte[] data = direction == FROM_SERVER ? Arrays.copyOfRange(b, off, off + len) : null;
+            heldRecords.add(new HeldRecord(System.nanoTime() - startNanos, direction, data, len));
+        }
+    }
+
+    /**
+     * Flushes and closes the capture.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            capture.close();
+        } catch (Exception e) {
+            System.out.println("Failed to close SessionRecorder. " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays back a capture made by a {@link SessionRecorder} so that a {@link HollomonClient} can be run without a server.
+ * The bytes the server sent are fed back in order, either as fast as possible or at the pacing they were recorded at.
+ * Anything the client writes is discarded.
+ * <br>
+ * If the recorded client opened a new connection, for example after failing over, the current stream ends where the connection was lost
+ * and the client's next stream carries on from the new connection.
+ *
+ * @see SessionRecorder
+ * @see HollomonClient#HollomonClient(SessionReplayer)
+ *
+ * @author DanielJudd
+ */
+public class SessionReplayer {
+
+    /**
+     * A single chunk of bytes read from the capture.
+     *
+     * @param nanos         The time the chunk was recorded, relative to the start of the recording.
+     * @param direction     One of {@link SessionRecorder#FROM_SERVER}, {@link SessionRecorder#TO_SERVER} or {@link SessionRecorder#NEW_CONNECTION}.
+     * @param data          The bytes of the chunk. Empty unless from the server, since only the length of what the client sent is recorded.
+     */
+    private record Chunk(long nanos, byte direction, byte[] data) {}
+
+    /**
+     * All chunks in the capture, in the order they were recorded.
+     */
+    private final List<Chunk> chunks;
+    /**
+     * If true, bytes from the server are delayed to match the recorded timings. Otherwise they are delivered as fast as possible.
+     */
+    private final boolean paced;
+
+    /**
+     * Index of the chunk currently being read by the client.
+     */
+    private int chunkIndex;
+    /**
+     * Position of the next byte to read within the current chunk.
+     */
+    private int chunkPosition;
+    /**
+     * True once {@link SessionReplayer#getInputStream()} has been called, so that later calls move on to the next connection.
+     */
+    private boolean streamOpened;
+    /**
+     * The recorded time that pacing is measured from. Moves to the matching request each time the client writes.
+     */
+    private long anchorRecorded;
+    /**
+     * The real time that {@link SessionReplayer#anchorRecorded} corresponds to.
+     */
+    private long anchorActual;
+
+    /**
+     * Constructs a new SessionReplayer by loading the whole capture from the given {@link InputStream}.
+     *
+     * @param input     The {@link InputStream} where the capture will be read from.
+     * @param paced     true to replay at the recorded pacing, false to replay as fast as possible.
+     * @throws IOException If the capture could not be read.
+     */
+    public SessionReplayer(InputStream input, boolean paced) throws IOException {
+        this.chunks = new ArrayList<>();
+        this.paced = paced;
+
+        try (DataInputStream capture = new DataInputStream(new BufferedInputStream(input))) {
+            while (true) {
+                long nanos;
+                try {
+                    nanos = capture.readLong();
+                } catch (EOFException e) {
+                    // No more records
+                    break;
+                }
+                byte direction = capture.readByte();
+                int length = capture.readInt();
+                byte[] data = new byte[direction == SessionRecorder.FROM_SERVER ? length : 0];
+                capture.readFully(data);
+                chunks.add(new Chunk(nanos, direction, data));
+            }
+        }
+        this.anchorActual = System.nanoTime();
+    }
+
+    /**
+     * Constructs a new SessionReplayer by loading the capture file at the given path.
+     *
+     * @param path      The path of the capture file.
+     * @param paced     true to replay at the recorded pacing, false to replay as fast as possible.
+     * @throws IOException If the file could not be read.
+     */
+    public SessionReplayer(String path, boolean paced) throws IOException {
+        this(new FileInputStream(path), paced);
+    }
+
+    /**
+     * Returns a stream of the bytes the server sent on the next recorded connection.
+     * The first call starts at the beginning of the capture. Each later call skips whatever is left of the current connection,
+     * and starts after the next {@link SessionRecorder#NEW_CONNECTION} record.
+     *
+     * @return An {@link InputStream} to be read in place of the socket.
+     */
+    public synchronized InputStream getInputStream() {
+        if (streamOpened) {
+            while (chunkIndex < chunks.size() && chunks.get(chunkIndex).direction() != SessionRecorder.NEW_CONNECTION) chunkIndex++;
+            if (chunkIndex < chunks.size()) chunkIndex++;
+            chunkPosition = 0;
+        }
+        streamOpened = true;
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return readFromServer(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Returns a stream which discards what the client writes, but keeps the pacing in step with the client's requests.
+     *
+     * @return An {@link OutputStream} to be written to in place of the socket.
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                requestSent();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                requestSent();
+            }
+        };
+    }
+
+    /**
+     * Copies the next bytes the server sent into the given buffer, waiting first if replaying at the recorded pacing.
+     *
+     * @param b         The buffer to copy into.
+     * @param off       The offset in the buffer to start at.
+     * @param len       The maximum number of bytes to copy.
+     * @return The number of bytes copied, or -1 if the capture or the current connection has ended.
+     * @throws IOException If interrupted while waiting.
+     */
+    private synchronized int readFromServer(byte[] b, int off, int len) throws IOException {
+        // Skip over anything the client sent
+        while (chunkIndex < chunks.size() && chunks.get(chunkIndex).direction() == SessionRecorder.TO_SERVER) {
+            chunkIndex++;
+            chunkPosition = 0;
+        }
+        // The connection was lost here, so the client has to open a new stream
+        if (chunkIndex == chunks.size() || chunks.get(chunkIndex).direction() == SessionRecorder.NEW_CONNECTION) return -1;
+        if (len == 0) return 0;
+
+        Chunk chunk = chunks.get(chunkIndex);
+        if (paced && chunkPosition == 0) waitUntil(anchorActual + (chunk.nanos() - anchorRecorded));
+
+        int count = Math.min(len, chunk.data().length - chunkPosition);
+        System.arraycopy(chunk.data(), chunkPosition, b, off, count);
+        chunkPosition += count;
+        if (chunkPosition == chunk.data().length) {
+            chunkIndex++;
+            chunkPosition = 0;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the pacing anchor to the next recorded request, so that replies are timed relative to when the client actually asked.
+     */
+    private synchronized void requestSent() {
+        for (int i = chunkIndex; i < chunks.size(); i++) {
+            if (chunks.get(i).direction() == SessionRecorder.TO_SERVER) {
+                anchorRecorded = chunks.get(i).nanos();
+                anchorActual = System.nanoTime();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sleeps until {@link System#nanoTime()} reaches the given time.
+     *
+     * @param targetNanos   The time to wait until.
+     * @throws IOException If interrupted while waiting.
+     */
+    private static void waitUntil(long targetNanos) throws IOException {
+        long remaining;
+        while ((remaining = targetNanos - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Replay interrupted.");
+            }
+        }
+    }
+}
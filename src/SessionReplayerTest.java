@@ -0,0 +1,136 @@
+import java.io.*;
+import java.util.List;
+
+/**
+ * Used to test the {@link SessionRecorder} and {@link SessionReplayer} classes.
+ * Tests that a recorded session is replayed byte for byte, that a {@link HollomonClient} can run against a replay, and that paced replays keep the recorded timings.
+ *
+ * @see SessionRecorder
+ * @see SessionReplayer
+ *
+ * @author DanielJudd
+ */
+public class SessionReplayerTest {
+
+    /**
+     * A login followed by a CREDITS request, as sent by the server.
+     */
+    private static final String serverSession = """
+            User tester logged in successfully.
+            CARD
+            54321
+            Gate Lodge
+            COMMON
+            0
+            CARD
+            12345
+            Butler
+            RARE
+            0
+            OK
+            150
+            OK
+            """;
+
+    /**
+     * Calls {@link SessionReplayerTest#testAllSessionReplayerTests()} to initiate testing.
+     *
+     * @param args  Command line arguments.
+     */
+    public static void main(String[] args) throws IOException {
+        testAllSessionReplayerTests();
+    }
+
+    /**
+     * Calls all other methods in order to test the {@link SessionRecorder} and {@link SessionReplayer} classes.
+     */
+    private static void testAllSessionReplayerTests() throws IOException {
+        testRecordAndReplay();
+        testClientReplay();
+        testPacedReplay();
+
+        System.out.println("All SessionReplayer tests passed!");
+    }
+
+    /**
+     * Records a session and returns the capture.
+     *
+     * @return The bytes of the capture.
+     */
+    private static byte[] recordSession() throws IOException {
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        SessionRecorder recorder = new SessionRecorder(capture);
+
+        // Send the login and read everything the "server" replies with
+        SessionRecorder.Connection connection = recorder.newConnection();
+        connection.attach();
+        OutputStream toServer = connection.recordOutput(new ByteArrayOutputStream());
+        toServer.write("tester\npassword\nCREDITS\n".getBytes());
+        InputStream fromServer = connection.recordInput(new ByteArrayInputStream(serverSession.getBytes()));
+        fromServer.readAllBytes();
+        recorder.close();
+
+        return capture.toByteArray();
+    }
+
+    /**
+     * Asserts that replaying a recorded session returns exactly the bytes the server sent, and that the password is not captured.
+     */
+    private static void testRecordAndReplay() throws IOException {
+        byte[] capture = recordSession();
+        assert !new String(capture).contains("password");
+
+        SessionReplayer replayer = new SessionReplayer(new ByteArrayInputStream(capture), false);
+        String replayed = new String(replayer.getInputStream().readAllBytes());
+        assert replayed.equals(serverSession);
+
+        System.out.println("RecordAndReplay test passed!");
+    }
+
+    /**
+     * Asserts that a {@link HollomonClient} logs in and reads credits from a replayed session.
+     */
+    private static void testClientReplay() throws IOException {
+        HollomonClient hollomonClient = new HollomonClient(new SessionReplayer(new ByteArrayInputStream(recordSession()), false));
+        List<Card> cards = hollomonClient.login("tester", "password");
+        long credits = hollomonClient.getCredits();
+        hollomonClient.close();
+
+        // Cards should be sorted with the rarer card first
+        assert cards.size() == 2;
+        assert cards.get(0).getName().equals("Butler");
+        assert credits == 150;
+
+        System.out.println("ClientReplay test passed!");
+    }
+
+    /**
+     * Asserts that a paced replay waits for a reply recorded 50ms after its request, and that a fast replay does not.
+     */
+    private static void testPacedReplay() throws IOException {
+        // Build a capture where the reply arrives 50ms after the request
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream capture = new DataOutputStream(bytes);
+        capture.writeLong(0);
+        capture.writeByte(SessionRecorder.TO_SERVER);
+        capture.writeInt(1);
+        capture.writeLong(50_000_000);
+        capture.writeByte(SessionRecorder.FROM_SERVER);
+        capture.writeInt(3);
+        capture.write("OK\n".getBytes());
+
+        SessionReplayer paced = new SessionReplayer(new ByteArrayInputStream(bytes.toByteArray()), true);
+        long start = System.nanoTime();
+        paced.getOutputStream().write('\n');
+        paced.getInputStream().readAllBytes();
+        assert System.nanoTime() - start >= 50_000_000;
+
+        SessionReplayer fast = new SessionReplayer(new ByteArrayInputStream(bytes.toByteArray()), false);
+        start = System.nanoTime();
+        fast.getOutputStream().write('\n');
+        fast.getInputStream().readAllBytes();
+        assert System.nanoTime() - start < 50_000_000;
+
+        System.out.println("PacedReplay test passed!");
+    }
+}